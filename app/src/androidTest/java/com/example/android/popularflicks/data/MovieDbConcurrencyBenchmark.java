@@ -0,0 +1,169 @@
+package com.example.android.popularflicks.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.popularflicks.data.MovieContract.MovieEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the latency of reads of the favourites database while another thread keeps writing
+ * to it, with write-ahead logging and with the rollback journal, and reports the percentiles in
+ * the log under the MovieDbConcurrency tag
+ * <p>
+ * With the rollback journal every read waits for the write transaction running on the single
+ * connection; with write-ahead logging the reads run on their own connections.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MovieDbConcurrencyBenchmark {
+
+    private static final String TAG = "MovieDbConcurrency";
+
+    // Name of the database file used by the benchmark
+    private static final String DATABASE_NAME = "concurrency_benchmark.db";
+
+    // Number of movies stored before the reads start
+    private static final int SEED_ROW_COUNT = 5000;
+
+    // Number of movies upserted by each write transaction
+    private static final int WRITE_BATCH_SIZE = 200;
+
+    // Number of reads measured
+    private static final int READ_COUNT = 500;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void readLatencyWhileWriting() throws Exception {
+        report("rollback journal", measureReads(false));
+        report("write-ahead log", measureReads(true));
+    }
+
+    /**
+     * @return the sorted latencies in nanoseconds of reads made while a thread keeps writing
+     */
+    private long[] measureReads(boolean writeAheadLogging) throws Exception {
+
+        mContext.deleteDatabase(DATABASE_NAME);
+        MovieDbHelper helper = new MovieDbHelper(mContext, DATABASE_NAME, writeAheadLogging);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            write(db, 0, SEED_ROW_COUNT);
+
+            final AtomicBoolean stopped = new AtomicBoolean();
+            final AtomicInteger writeCount = new AtomicInteger();
+            Thread writer = new Thread("MovieDbWriter") {
+                @Override
+                public void run() {
+                    int first = 0;
+                    while (!stopped.get()) {
+                        write(db, first, WRITE_BATCH_SIZE);
+                        first = (first + WRITE_BATCH_SIZE) % SEED_ROW_COUNT;
+                        writeCount.incrementAndGet();
+                    }
+                }
+            };
+            writer.start();
+
+            Random random = new Random(42);
+            long[] latencies = new long[READ_COUNT];
+            try {
+                for (int i = 0; i < READ_COUNT; i++) {
+                    String tmdbId = String.valueOf(random.nextInt(SEED_ROW_COUNT) + 1);
+                    long start = System.nanoTime();
+                    Cursor cursor = db.query(MovieEntry.TABLE_NAME,
+                            null,
+                            MovieEntry.COLUMN_TMDB_ID + "=?",
+                            new String[]{tmdbId},
+                            null,
+                            null,
+                            null);
+                    try {
+                        assertTrue(cursor.moveToFirst());
+                    } finally {
+                        cursor.close();
+                    }
+                    latencies[i] = System.nanoTime() - start;
+                }
+            } finally {
+                stopped.set(true);
+                writer.join();
+            }
+            Log.i(TAG, (writeAheadLogging ? "write-ahead log" : "rollback journal") + ": "
+                    + writeCount.get() + " write transactions during the reads");
+
+            Arrays.sort(latencies);
+            return latencies;
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Upserts a range of movies in a single transaction
+     */
+    private static void write(SQLiteDatabase db, int first, int count) {
+
+        db.beginTransactionNonExclusive();
+        MovieUpserter upserter = new MovieUpserter(db);
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = first; i < first + count; i++) {
+                values.put(MovieEntry.COLUMN_TITLE, "Movie " + i);
+                values.put(MovieEntry.COLUMN_POSTER_PATH, "/poster" + i + ".jpg");
+                values.put(MovieEntry.COLUMN_RATING, String.valueOf(i % 100 / 10.0));
+                values.put(MovieEntry.COLUMN_SYNOPSIS, "Synopsis of movie " + i);
+                values.put(MovieEntry.COLUMN_RELEASE_DATE, "2017-01-01");
+                values.put(MovieEntry.COLUMN_TMDB_ID, String.valueOf(i + 1));
+                upserter.upsert(values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            upserter.close();
+            db.endTransaction();
+        }
+    }
+
+    private static void report(String mode, long[] sortedLatencies) {
+        Log.i(TAG, String.format(Locale.US,
+                "%s: read latency p50=%.2f ms, p90=%.2f ms, p99=%.2f ms, max=%.2f ms",
+                mode,
+                percentile(sortedLatencies, 50) / 1e6,
+                percentile(sortedLatencies, 90) / 1e6,
+                percentile(sortedLatencies, 99) / 1e6,
+                sortedLatencies[sortedLatencies.length - 1] / 1e6));
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)];
+    }
+}
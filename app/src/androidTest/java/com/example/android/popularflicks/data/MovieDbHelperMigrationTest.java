@@ -0,0 +1,143 @@
+package com.example.android.popularflicks.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.popularflicks.data.MovieContract.MovieEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Migrates a large database of the first version through {@link MovieDbHelper}, checking that
+ * the favourites are kept with their new column types, and reports the time taken in the log
+ * under the MovieDbHelperMigrationTest tag
+ */
+@RunWith(AndroidJUnit4.class)
+public class MovieDbHelperMigrationTest {
+
+    private static final String TAG = "MovieDbHelperMigrationTest";
+
+    // Name of the database file used by the test
+    private static final String DATABASE_NAME = "migration_test.db";
+
+    // Number of movies stored in the database of the first version
+    private static final int ROW_COUNT = 50000;
+
+    // Schema of the first version, in which every column is stored as TEXT
+    private static final String CREATE_TABLE_V1 = "CREATE TABLE movies (" +
+            "_id INTEGER PRIMARY KEY NOT NULL, " +
+            "title TEXT, " +
+            "poster TEXT, " +
+            "rating TEXT, " +
+            "id TEXT UNIQUE, " +
+            "release_date TEXT, " +
+            "synopsis TEXT);";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void migratesVersion1KeepingFavourites() throws Exception {
+
+        createVersion1Database();
+
+        MovieDbHelper helper = new MovieDbHelper(mContext, DATABASE_NAME);
+        long start = System.nanoTime();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long elapsedNanos = System.nanoTime() - start;
+        Log.i(TAG, String.format(Locale.US, "Migrated %d rows from version 1 to %d in %.1f ms",
+                ROW_COUNT, db.getVersion(), elapsedNanos / 1e6));
+
+        try {
+            assertEquals(ROW_COUNT, queryLong(db, "SELECT COUNT(*) FROM movies"));
+
+            // The columns hold numbers, and the movies kept their row ids
+            Cursor cursor = db.rawQuery("SELECT typeof(rating), typeof(id), rating, id, title"
+                    + " FROM movies WHERE _id = 42", null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("real", cursor.getString(0));
+                assertEquals("integer", cursor.getString(1));
+                assertEquals(4.2, cursor.getDouble(2), 0.001);
+                assertEquals(1042, cursor.getLong(3));
+                assertEquals("Movie 42", cursor.getString(4));
+            } finally {
+                cursor.close();
+            }
+
+            // Movies are looked up by TMDB id through the index
+            assertEquals(1, queryLong(db, "SELECT COUNT(*) FROM sqlite_master"
+                    + " WHERE type = 'index' AND tbl_name = 'movies' AND sql LIKE '%UNIQUE%'"));
+            assertEquals(1, queryLong(db, "SELECT COUNT(*) FROM movies WHERE "
+                    + MovieEntry.COLUMN_TMDB_ID + " = '1042'"));
+        } finally {
+            helper.close();
+        }
+    }
+
+    private void createVersion1Database() {
+
+        File databaseFile = mContext.getDatabasePath(DATABASE_NAME);
+        databaseFile.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+        try {
+            db.execSQL(CREATE_TABLE_V1);
+            db.beginTransaction();
+            SQLiteStatement insert = db.compileStatement("INSERT INTO movies"
+                    + " (_id, title, poster, rating, id, release_date, synopsis)"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?)");
+            try {
+                for (int i = 1; i <= ROW_COUNT; i++) {
+                    insert.bindLong(1, i);
+                    insert.bindString(2, "Movie " + i);
+                    insert.bindString(3, "https://image.tmdb.org/t/p/w300//poster" + i + ".jpg");
+                    insert.bindString(4, String.valueOf(i % 100 / 10.0));
+                    insert.bindString(5, String.valueOf(1000 + i));
+                    insert.bindString(6, "2017-01-01");
+                    insert.bindString(7, "Synopsis of movie " + i);
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                insert.close();
+                db.endTransaction();
+            }
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.android.popularflicks.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import com.example.android.popularflicks.data.MovieContract.MovieEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the rows per second written by the bulk writes of {@link MovieProvider}, compared with
+ * inserting the movies one by one, and reports them in the log under the MovieProviderBenchmark
+ * tag
+ * <p>
+ * The provider runs on a renamed copy of the database, so the favourites of the device are not
+ * touched. It keeps its own favourites index and sends its notifications to a mock resolver,
+ * so the index and the observers of the app do not see the movies written.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MovieProviderBenchmark {
+
+    private static final String TAG = "MovieProviderBenchmark";
+
+    // Prefix of the database file used by the benchmark
+    private static final String DATABASE_PREFIX = "benchmark.";
+
+    private static final String DATABASE_NAME = "movies.db";
+
+    // Numbers of movies written by each run
+    private static final int[] ROW_COUNTS = {10, 1000, 100000};
+
+    // Single inserts are only measured up to this number of movies, as each of them commits
+    private static final int MAX_SINGLE_INSERT_ROWS = 1000;
+
+    private Context mContext;
+    private MovieProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        final ContentResolver resolver = new MockContentResolver();
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                DATABASE_PREFIX) {
+            @Override
+            public ContentResolver getContentResolver() {
+                // Drops the notifications instead of sending them to the app's observers
+                return resolver;
+            }
+        };
+        mContext.deleteDatabase(DATABASE_NAME);
+        mProvider = new MovieProvider(new FavouritesIndex());
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mProvider.shutdown();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void bulkInsert() throws Exception {
+
+        for (int rowCount : ROW_COUNTS) {
+            clear();
+            ContentValues[] movies = createMovies(rowCount);
+
+            long start = System.nanoTime();
+            assertEquals(rowCount, mProvider.bulkInsert(MovieEntry.CONTENT_URI, movies));
+            report("bulkInsert", rowCount, System.nanoTime() - start);
+
+            // Every movie exists now, so each of them is updated in place
+            start = System.nanoTime();
+            assertEquals(rowCount, mProvider.bulkInsert(MovieEntry.CONTENT_URI, movies));
+            report("bulkInsert upsert", rowCount, System.nanoTime() - start);
+
+            assertEquals(rowCount, count());
+        }
+    }
+
+    @Test
+    public void applyBatch() throws Exception {
+
+        for (int rowCount : ROW_COUNTS) {
+            clear();
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(rowCount);
+            for (ContentValues movie : createMovies(rowCount)) {
+                operations.add(ContentProviderOperation.newInsert(MovieEntry.CONTENT_URI)
+                        .withValues(movie)
+                        .build());
+            }
+
+            long start = System.nanoTime();
+            assertEquals(rowCount, mProvider.applyBatch(operations).length);
+            report("applyBatch", rowCount, System.nanoTime() - start);
+
+            assertEquals(rowCount, count());
+        }
+    }
+
+    @Test
+    public void singleInserts() throws Exception {
+
+        for (int rowCount : ROW_COUNTS) {
+            if (rowCount > MAX_SINGLE_INSERT_ROWS) {
+                continue;
+            }
+            clear();
+            ContentValues[] movies = createMovies(rowCount);
+
+            long start = System.nanoTime();
+            for (ContentValues movie : movies) {
+                mProvider.insert(MovieEntry.CONTENT_URI, movie);
+            }
+            report("insert", rowCount, System.nanoTime() - start);
+
+            assertEquals(rowCount, count());
+        }
+    }
+
+    private static ContentValues[] createMovies(int rowCount) {
+
+        ContentValues[] movies = new ContentValues[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            ContentValues values = new ContentValues();
+            values.put(MovieEntry.COLUMN_TITLE, "Movie " + i);
+            values.put(MovieEntry.COLUMN_POSTER_PATH, "/poster" + i + ".jpg");
+            values.put(MovieEntry.COLUMN_RATING, String.valueOf(i % 100 / 10.0));
+            values.put(MovieEntry.COLUMN_SYNOPSIS, "Synopsis of movie " + i);
+            values.put(MovieEntry.COLUMN_RELEASE_DATE, "2017-01-01");
+            values.put(MovieEntry.COLUMN_TMDB_ID, String.valueOf(i + 1));
+            movies[i] = values;
+        }
+        return movies;
+    }
+
+    private void clear() {
+        mProvider.delete(MovieEntry.CONTENT_URI, null, null);
+    }
+
+    private int count() {
+
+        Cursor cursor = mProvider.query(MovieEntry.CONTENT_URI,
+                new String[]{"COUNT(*)"},
+                null,
+                null,
+                null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void report(String operation, int rowCount, long elapsedNanos) {
+        Log.i(TAG, String.format(Locale.US, "%s of %d rows: %.1f ms, %.0f rows/s",
+                operation,
+                rowCount,
+                elapsedNanos / 1e6,
+                rowCount * 1e9 / elapsedNanos));
+    }
+}
@@ -1,13 +1,12 @@
 package com.example.android.popularflicks;
 
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.app.LoaderManager;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
-import android.support.v4.content.AsyncTaskLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
@@ -20,13 +19,20 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.popularflicks.data.FavouritesIndex;
+import com.example.android.popularflicks.data.FavouritesWriter;
 import com.example.android.popularflicks.data.MovieContract.MovieEntry;
+import com.example.android.popularflicks.utilites.CancellationToken;
 import com.example.android.popularflicks.utilites.JSONUtils;
 import com.example.android.popularflicks.utilites.QueryUtils;
-import com.squareup.picasso.Picasso;
+import com.example.android.popularflicks.utilites.RequestCancelledException;
+import com.example.android.popularflicks.utilites.ResponseParser;
+import com.example.android.popularflicks.utilites.TaskScheduler;
+import com.example.android.popularflicks.utilites.TransferStats;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Set;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -36,7 +42,8 @@ import butterknife.ButterKnife;
  * Displays information about the app such as user rating, synopsis etc.
  * Also displays views to read reviews and watch trailers of the movie
  */
-public class DetailActivity extends AppCompatActivity implements LoaderCallbacks<Movie> {
+public class DetailActivity extends AppCompatActivity implements LoaderCallbacks<Movie>,
+        FavouritesIndex.Listener {
 
     // Key for saved movie object
     private static final String MOVIE_KEY = "movie";
@@ -93,6 +100,76 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
     // A constant loader ID to identify the loader
     private static final int DETAIL_LOADER_ID = 643;
 
+    // Loader IDs of the reviews and trailers when they are requested separately
+    private static final int REVIEWS_LOADER_ID = 644;
+    private static final int TRAILERS_LOADER_ID = 645;
+
+    // Cancels the separate requests which overrun their timeout
+    private final Handler mTimeoutHandler = new Handler(Looper.getMainLooper());
+
+    // Start time of the separate requests and whether each of them has finished
+    private long mSectionsStartNanos;
+    private boolean mReviewsFinished;
+    private boolean mTrailersFinished;
+
+    // Displays the reviews as soon as they are loaded, independently of the trailers
+    private final LoaderCallbacks<ArrayList<Movie.Review>> mReviewsCallbacks =
+            new LoaderCallbacks<ArrayList<Movie.Review>>() {
+                @Override
+                public Loader<ArrayList<Movie.Review>> onCreateLoader(int id, Bundle args) {
+                    return createSectionLoader(
+                            QueryUtils.createReviewsQueryUrl(mSelectedMovie.getTmdbId()),
+                            JSONUtils.REVIEWS_PARSER,
+                            getResources().getInteger(R.integer.detail_reviews_timeout_seconds));
+                }
+
+                @Override
+                public void onLoadFinished(Loader<ArrayList<Movie.Review>> loader,
+                                           ArrayList<Movie.Review> reviews) {
+                    if (reviews != null) {
+                        mSelectedMovie.setReviews(reviews);
+                        saveInstanceMovie = mSelectedMovie;
+                        setReviewData(mSelectedMovie);
+                    }
+                    mReviewsFinished = true;
+                    onSectionFinished("reviews", reviews != null);
+                }
+
+                @Override
+                public void onLoaderReset(Loader<ArrayList<Movie.Review>> loader) {
+                    // Do nothing; Overriden to implement LoaderCallbacks
+                }
+            };
+
+    // Displays the trailers as soon as they are loaded, independently of the reviews
+    private final LoaderCallbacks<ArrayList<Movie.Trailer>> mTrailersCallbacks =
+            new LoaderCallbacks<ArrayList<Movie.Trailer>>() {
+                @Override
+                public Loader<ArrayList<Movie.Trailer>> onCreateLoader(int id, Bundle args) {
+                    return createSectionLoader(
+                            QueryUtils.createTrailersQueryUrl(mSelectedMovie.getTmdbId()),
+                            JSONUtils.TRAILERS_PARSER,
+                            getResources().getInteger(R.integer.detail_trailers_timeout_seconds));
+                }
+
+                @Override
+                public void onLoadFinished(Loader<ArrayList<Movie.Trailer>> loader,
+                                           ArrayList<Movie.Trailer> trailers) {
+                    if (trailers != null) {
+                        mSelectedMovie.setTrailers(trailers);
+                        saveInstanceMovie = mSelectedMovie;
+                        setTrailerData(mSelectedMovie);
+                    }
+                    mTrailersFinished = true;
+                    onSectionFinished("trailers", trailers != null);
+                }
+
+                @Override
+                public void onLoaderReset(Loader<ArrayList<Movie.Trailer>> loader) {
+                    // Do nothing; Overriden to implement LoaderCallbacks
+                }
+            };
+
     // Boolean to keep track of the first onResume call
     // to hide the loading indicator on subsequent calls
     private static boolean shouldExecuteOnResume;
@@ -109,6 +186,10 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
 
         // First onResume call after onCreate; boolean is set to false
         shouldExecuteOnResume = false;
+
+        // Updates the star if the favourites index is loaded after the menu is displayed
+        FavouritesIndex.getInstance().addListener(this);
+
         // Gets a reference to the Intent that started the Detail Activity
         Intent startingIntent = getIntent();
         if (startingIntent != null) {
@@ -139,10 +220,8 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
                     // Gets the details of the Movie object for the Movie selected in MainActivity
                     mSelectedMovie = startingIntent.getParcelableExtra("Movie");
                 }
-                // Loads the image for the poster using Picasso
-                Picasso.with(this)
-                        .load(mSelectedMovie.getPosterPath())
-                        .into(mPosterImageView);
+                // Loads the image for the poster, in the rendition fitting its view
+                ImageLoader.displayPoster(mPosterImageView, mSelectedMovie.getPosterPath());
 
                 // Setting the text for the TextViews
                 mTitleTextView.setText(mSelectedMovie.getTitle());
@@ -162,16 +241,15 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
                             setReviewData(mSelectedMovie);
                             setTrailerData(mSelectedMovie);
                         } else {
-                            // Initialises Loader
-                            getSupportLoaderManager().initLoader(DETAIL_LOADER_ID, null, this);
-
+                            loadDetails();
                         }
-                    } else if (QueryUtils.isNetworkAvailable(this)) {
-
-                        // Initialises Loader
-                        getSupportLoaderManager().initLoader(DETAIL_LOADER_ID, null, this);
+                    } else if (showPrefetchedDetails()) {
 
+                        // The details were prefetched while the movie was visible in the grid,
+                        // which is counted by DetailPrefetcher
+                    } else if (QueryUtils.isNetworkAvailable(this)) {
                         setTrailerAdapter();
+                        loadDetails();
                     }
                 } else {
 
@@ -185,6 +263,126 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
 
     }
 
+    /**
+     * Loads the reviews and trailers of the selected movie, either with a single request or
+     * with two concurrent requests whose sections are displayed as soon as each arrives
+     */
+    private void loadDetails() {
+
+        LoaderManager loaderManager = getSupportLoaderManager();
+        if (QueryUtils.useCombinedDetailRequest) {
+            loaderManager.initLoader(DETAIL_LOADER_ID, null, this);
+        } else {
+            // Displayed until both sections have finished, each being displayed on arrival
+            mReviewLoadingIndicator.setVisibility(View.VISIBLE);
+            mReviewsFinished = false;
+            mTrailersFinished = false;
+            mSectionsStartNanos = System.nanoTime();
+            loaderManager.initLoader(REVIEWS_LOADER_ID, null, mReviewsCallbacks);
+            loaderManager.initLoader(TRAILERS_LOADER_ID, null, mTrailersCallbacks);
+        }
+    }
+
+    /**
+     * Creates a Loader requesting one section of the details on its own, which gives up once
+     * its timeout has passed without affecting the other section
+     *
+     * @param url            URL of the section
+     * @param parser         parser of the section
+     * @param timeoutSeconds time after which the request is cancelled
+     * @return the Loader, which delivers null if the request failed or timed out
+     */
+    private <T> Loader<T> createSectionLoader(final URL url,
+                                              final ResponseParser<T> parser,
+                                              final int timeoutSeconds) {
+
+        return new TaskLoader<T>(this,
+                TaskScheduler.POOL_NETWORK, TaskScheduler.PRIORITY_VISIBLE) {
+
+            // Stores the loaded section
+            T mData = null;
+
+            @Override
+            protected void onStartLoading() {
+                if (mData != null) {
+                    deliverResult(mData);
+                } else {
+                    forceLoad();
+                }
+            }
+
+            @Override
+            protected T loadInBackground(final CancellationToken token) {
+
+                Runnable timeout = new Runnable() {
+                    @Override
+                    public void run() {
+                        QueryUtils.getRequestMetrics()
+                                .recordTimeout(TransferStats.endpointOf(url));
+                        token.cancel();
+                    }
+                };
+                mTimeoutHandler.postDelayed(timeout, timeoutSeconds * 1000L);
+                try {
+                    return QueryUtils.fetch(url, parser, token);
+                } catch (RequestCancelledException e) {
+                    // Timed out, or the activity was left before the section was loaded
+                    return null;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return null;
+                } finally {
+                    mTimeoutHandler.removeCallbacks(timeout);
+                }
+            }
+
+            @Override
+            public void deliverResult(T data) {
+                mData = data;
+                super.deliverResult(data);
+            }
+        };
+    }
+
+    /**
+     * Records the time until the section was displayed, and hides the loading indicator once
+     * both separate requests have finished
+     *
+     * @param section name of the section which finished
+     * @param loaded  whether the section was loaded
+     */
+    private void onSectionFinished(String section, boolean loaded) {
+
+        QueryUtils.getRequestMetrics().recordSection("details/" + section,
+                System.nanoTime() - mSectionsStartNanos, loaded);
+
+        if (mReviewsFinished && mTrailersFinished) {
+            mReviewLoadingIndicator.setVisibility(View.INVISIBLE);
+        }
+    }
+
+    /**
+     * Displays the reviews and trailers of the selected movie if they were prefetched
+     *
+     * @return true if the details were prefetched and displayed
+     */
+    private boolean showPrefetchedDetails() {
+
+        MovieDetails details = DetailPrefetcher.getPrefetchedDetails(mSelectedMovie.getTmdbId());
+        if (details == null) {
+            return false;
+        }
+        mSelectedMovie.setReviews(details.getReviews());
+        mSelectedMovie.setTrailers(details.getTrailers());
+        saveInstanceMovie = mSelectedMovie;
+
+        setTrailerAdapter();
+        mReviewLoadingIndicator.setVisibility(View.INVISIBLE);
+        setReviewData(mSelectedMovie);
+        setTrailerData(mSelectedMovie);
+        return true;
+    }
+
     public void setTrailerAdapter() {
 
         // The RecyclerView has items of fixed size
@@ -234,8 +432,10 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
         MenuItem favourite = menu.findItem(R.id.menu_detail_action_favourite);
 
         // If the movie is a favourite, the star is set to a white solid star
-        if (checkMovieInDatabase()) {
+        if (checkMovieInFavourites()) {
             favourite.setIcon(R.drawable.ic_star_white_24dp);
+        } else {
+            favourite.setIcon(R.drawable.ic_star_border_white_24dp);
         }
 
         return super.onPrepareOptionsMenu(menu);
@@ -272,9 +472,14 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
         switch (itemSelected) {
             case R.id.menu_detail_action_favourite:
 
+                // The state of the movie is not known until the favourites index is loaded
+                if (!FavouritesIndex.getInstance().isLoaded()) {
+                    return true;
+                }
+
                 // Insert or delete the movie from the database
                 // depending on whether it exists in it or not
-                if (!checkMovieInDatabase()) {
+                if (!checkMovieInFavourites()) {
                     insertInDatabase();
                 } else {
                     deleteFromDatabase();
@@ -287,51 +492,29 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
     }
 
     /**
-     * Checks whether the selected movie exists in the database or not i.e.
-     * checks if the movie is a favourite or not
+     * Checks whether the selected movie is a favourite in the in-memory favourites index,
+     * without querying the database
      *
-     * @return true if the movie exists in the database
+     * @return true if the movie is a favourite
      */
-    private boolean checkMovieInDatabase() {
-
-        // Fields of the movie to be checked in the database i.e. the TMDB ID of the movie
-        String[] projection = {MovieEntry.COLUMN_TMDB_ID};
-
-        // Cursor to store the movie data
-        Cursor checkMovieCursor = null;
-
-        // Selection for the query operation
-        String selection = MovieEntry.COLUMN_TMDB_ID + "=?";
+    private boolean checkMovieInFavourites() {
 
-        // SelectionArgs for the query operation
-        String[] selectionArgs = {mSelectedMovie.getTmdbId()};
-
-        try {
-
-            // Query operation on the Content Provider
-            // to check if the movie with the particular TMDB ID exists in the database
-            checkMovieCursor = getContentResolver().query(MovieEntry.CONTENT_URI,
-                    projection,
-                    selection,
-                    selectionArgs,
-                    null);
+        boolean favourite = FavouritesIndex.getInstance().contains(mSelectedMovie.getTmdbId());
+        mSelectedMovie.setFavourite(favourite);
+        return favourite;
+    }
 
-            // If the cursor is not empty, the movie exists inside the database
-            if (checkMovieCursor.getCount() != 0) {
+    /**
+     * Updates the star once the favourites index is loaded, or when the movie is added to or
+     * removed from the favourites
+     */
+    @Override
+    public void onFavouritesChanged(Set<String> tmdbIds) {
 
-                // Set the movie as a favourite
-                mSelectedMovie.setFavourite(true);
-                return true;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            // Close the cursor if it is not null
-            if (checkMovieCursor != null) {
-                checkMovieCursor.close();
-            }
+        if (mSelectedMovie != null
+                && (tmdbIds == null || tmdbIds.contains(mSelectedMovie.getTmdbId()))) {
+            supportInvalidateOptionsMenu();
         }
-        return false;
     }
 
     @Override
@@ -344,7 +527,8 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
     }
 
     /**
-     * Inserts the movie in the database stored on the device locally
+     * Queues the movie to be inserted in the database stored on the device locally, which happens
+     * in the background
      * Sets the movie as a favourite
      */
     private void insertInDatabase() {
@@ -360,12 +544,9 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
         values.put(MovieEntry.COLUMN_SYNOPSIS, mSelectedMovie.getSynopsis());
         values.put(MovieEntry.COLUMN_TMDB_ID, mSelectedMovie.getTmdbId());
 
-        // Uri to insert the ContentValues object
-        Uri insertUri = getContentResolver().insert(MovieEntry.CONTENT_URI, values);
-
-        // Setting the DbId of the movie to the id where the ContentValues was inserted
-        int id = (int) ContentUris.parseId(insertUri);
-        mSelectedMovie.setDbId(id);
+        // Queues the ContentValues object to be inserted; a removal of the movie queued just
+        // before cancels out with it
+        FavouritesWriter.getInstance().insert(this, values);
 
         // Sets the movie as a favourite
         mSelectedMovie.setFavourite(true);
@@ -373,21 +554,15 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
 
 
     /**
-     * Deletes the movie from the database stored on the device locally
+     * Queues the movie to be deleted from the database stored on the device locally, which happens
+     * in the background
      * Removes the movie as a favourite
      */
     private void deleteFromDatabase() {
 
-        // Selection and selectionArgs to delete just the selected movie from the database
-        String selection = MovieEntry.COLUMN_TMDB_ID + "=?";
-        String id = String.valueOf(mSelectedMovie.getTmdbId());
-        String[] selectionArgs = {id};
-
-        // Deletes the movie from the database using the Content Provider
-        getContentResolver().delete
-                (MovieEntry.CONTENT_URI,
-                        selection,
-                        selectionArgs);
+        // Queues just the selected movie to be deleted; an insertion of the movie queued just
+        // before cancels out with it
+        FavouritesWriter.getInstance().delete(this, mSelectedMovie.getTmdbId());
 
         // Removes the database ID from the movie object
         mSelectedMovie.clearDbId();
@@ -398,7 +573,8 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
 
     @Override
     public Loader<Movie> onCreateLoader(int id, final Bundle args) {
-        return new AsyncTaskLoader<Movie>(this) {
+        return new TaskLoader<Movie>(this,
+                TaskScheduler.POOL_NETWORK, TaskScheduler.PRIORITY_VISIBLE) {
             @Override
             protected void onStartLoading() {
 
@@ -409,29 +585,34 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
             }
 
             @Override
-            public Movie loadInBackground() {
-
-                // URLs for review and trailer queries
-                URL reviewsQueryUrl = QueryUtils.createReviewsQueryUrl(mSelectedMovie.getTmdbId());
-                URL trailersQueryUrl = QueryUtils.createTrailersQueryUrl(mSelectedMovie.getTmdbId());
+            protected Movie loadInBackground(CancellationToken token) {
 
-                // Strings to store the JSON Responses received from the query
-                String reviewsJsonResponse;
-                String trailersJsonResponse;
+                // Start time, to compare the latency of the single and separate requests
+                long startNanos = System.nanoTime();
 
                 try {
-
-                    // Http requests are made and the returned JSON Responses are stored in Strings
-                    reviewsJsonResponse = QueryUtils.makeHttpRequest(reviewsQueryUrl);
-                    trailersJsonResponse = QueryUtils.makeHttpRequest(trailersQueryUrl);
+                    // A single Http request is made for the movie with its reviews and
+                    // trailers appended, which are parsed in one pass
+                    URL detailsQueryUrl =
+                            QueryUtils.createMovieDetailsQueryUrl(mSelectedMovie.getTmdbId());
+                    MovieDetails details =
+                            QueryUtils.fetch(detailsQueryUrl, JSONUtils.MOVIE_DETAILS_PARSER, token);
 
                     // The review and trailer data is stored in the selected movie object
-                    mSelectedMovie = JSONUtils.extractReviewsFromJson(mSelectedMovie, reviewsJsonResponse);
-                    mSelectedMovie = JSONUtils.extractTrailersFromJson(mSelectedMovie, trailersJsonResponse);
+                    mSelectedMovie.setReviews(details.getReviews());
+                    mSelectedMovie.setTrailers(details.getTrailers());
+                } catch (RequestCancelledException e) {
+                    // The activity was left before the details were loaded
+                    return null;
                 } catch (Exception e) {
                     e.printStackTrace();
+                    QueryUtils.getRequestMetrics().recordSection("details/combined",
+                            System.nanoTime() - startNanos, false);
                     return null;
                 }
+                QueryUtils.getRequestMetrics().recordSection("details/combined",
+                        System.nanoTime() - startNanos, true);
+
                 saveInstanceMovie = mSelectedMovie;
                 return mSelectedMovie;
             }
@@ -451,14 +632,23 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        FavouritesIndex.getInstance().removeListener(this);
+    }
+
     @Override
     public void onLoadFinished(Loader<Movie> loader, final Movie data) {
 
         // Hides the loading indicator
         mReviewLoadingIndicator.setVisibility(View.INVISIBLE);
 
-        setReviewData(data);
-        setTrailerData(data);
+        // Nothing is displayed if the request failed
+        if (data != null) {
+            setReviewData(data);
+            setTrailerData(data);
+        }
     }
 
     /**
@@ -468,7 +658,7 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
      */
     public void setReviewData(final Movie data) {
         // Checks if review data exists
-        if (data.getReviews().size() != 0 && data.getReviews() != null) {
+        if (data.getReviews() != null && data.getReviews().size() != 0) {
 
             // Displays the review count
             int reviewCount = data.getReviews().size();
@@ -495,7 +685,7 @@ public class DetailActivity extends AppCompatActivity implements LoaderCallbacks
      */
     public void setTrailerData(Movie data) {
         // Checks if trailer data exists
-        if (data.getTrailers().size() != 0 && data.getTrailers() != null) {
+        if (data.getTrailers() != null && data.getTrailers().size() != 0) {
 
             // Displays the trailer data
             mWatchLabelTextView.setVisibility(View.VISIBLE);
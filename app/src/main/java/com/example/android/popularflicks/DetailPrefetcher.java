@@ -0,0 +1,287 @@
+package com.example.android.popularflicks;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.LruCache;
+
+import com.example.android.popularflicks.utilites.CancellationToken;
+import com.example.android.popularflicks.utilites.JSONUtils;
+import com.example.android.popularflicks.utilites.QueryUtils;
+import com.example.android.popularflicks.utilites.TaskScheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefetches the reviews and trailers of the movies visible in the grid of the MainActivity
+ * while the grid is idle, so that the DetailActivity of the next tapped movie renders at once
+ * <p>
+ * Prefetching starts once the grid has been idle for a moment and stops as soon as it is
+ * scrolled, cancelling the requests in flight. The requests run on the network pool of the
+ * {@link TaskScheduler} at the lowest priority, behind any request for what is on screen, and
+ * at most the configured number of them are queued or running at a time. Nothing is prefetched
+ * on metered networks, and prefetching stops for good once the prefetches themselves have
+ * downloaded the configured number of bytes. Prefetched details are held in a small in-memory
+ * LRU cache shared with the DetailActivity.
+ */
+
+class DetailPrefetcher extends RecyclerView.OnScrollListener {
+
+    // Time for which the grid has to be idle before prefetching starts
+    private static final long IDLE_DELAY_MILLIS = 300;
+
+    // Maximum number of prefetched details held in memory
+    private static final int MAX_CACHED_DETAILS = 40;
+
+    // Details of recently prefetched movies, by TMDB id
+    private static final LruCache<String, MovieDetails> sDetailsCache =
+            new LruCache<>(MAX_CACHED_DETAILS);
+
+    // Number of detail screens which found their details prefetched, and which did not
+    private static int sHitCount;
+    private static int sMissCount;
+
+    // Number of movies whose details were prefetched
+    private static int sPrefetchCount;
+
+    private final Context mContext;
+    private final LinearLayoutManager mLayoutManager;
+    private final MovieAdapter mMovieAdapter;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Maximum number of prefetches queued or running at a time
+    private final int mConcurrency;
+
+    // Maximum number of bytes downloaded by the prefetches of the prefetcher
+    private final long mByteBudget;
+
+    // Bytes downloaded by the prefetches so far; the requests of the DetailActivity, which
+    // use the same endpoint, are not counted
+    private final AtomicLong mPrefetchedBytes = new AtomicLong();
+
+    // Prefetches queued or running, by TMDB id; only used on the main thread
+    private final HashMap<String, PrefetchJob> mInFlight = new HashMap<>();
+
+    // TMDB ids of the visible movies waiting for a prefetch to finish; only used on the main
+    // thread
+    private final ArrayDeque<String> mPending = new ArrayDeque<>();
+
+    // Whether prefetching stopped for good
+    private boolean mShutdown;
+
+    // Prefetches the movies visible once the grid has been idle
+    private final Runnable mPrefetchVisible = new Runnable() {
+        @Override
+        public void run() {
+            prefetchVisible();
+        }
+    };
+
+    /**
+     * @param context       used to check whether the network is metered
+     * @param layoutManager layout manager of the grid
+     * @param movieAdapter  adapter of the grid
+     * @param concurrency   maximum number of prefetch requests running at a time
+     * @param byteBudget    maximum number of bytes downloaded by the prefetches
+     */
+    DetailPrefetcher(Context context,
+                     LinearLayoutManager layoutManager,
+                     MovieAdapter movieAdapter,
+                     int concurrency,
+                     long byteBudget) {
+
+        mContext = context.getApplicationContext();
+        mLayoutManager = layoutManager;
+        mMovieAdapter = movieAdapter;
+        mByteBudget = byteBudget;
+        mConcurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Returns the prefetched details of a movie, recording whether they were prefetched
+     *
+     * @param tmdbId TMDB id of the movie
+     * @return the details or null if they were not prefetched
+     */
+    static MovieDetails getPrefetchedDetails(String tmdbId) {
+
+        MovieDetails details = sDetailsCache.get(tmdbId);
+        synchronized (DetailPrefetcher.class) {
+            if (details != null) {
+                sHitCount++;
+            } else {
+                sMissCount++;
+            }
+        }
+        return details;
+    }
+
+    /**
+     * @return fraction of the detail screens which found their details prefetched
+     */
+    static synchronized double getHitRate() {
+        int total = sHitCount + sMissCount;
+        return total == 0 ? 0 : (double) sHitCount / total;
+    }
+
+    /**
+     * @return hit, miss and prefetch counts
+     */
+    static synchronized String getStats() {
+        return "DetailPrefetcher[hits=" + sHitCount
+                + ", misses=" + sMissCount
+                + ", prefetched=" + sPrefetchCount
+                + ", cached=" + sDetailsCache.size() + "/" + MAX_CACHED_DETAILS + "]";
+    }
+
+    /**
+     * Prefetches the visible movies once the grid has been idle for a moment,
+     * e.g. after a list has been set in the adapter
+     */
+    void schedule() {
+        mHandler.removeCallbacks(mPrefetchVisible);
+        mHandler.postDelayed(mPrefetchVisible, IDLE_DELAY_MILLIS);
+    }
+
+    /**
+     * Stops prefetching and cancels the prefetches queued or running
+     */
+    void pause() {
+
+        mHandler.removeCallbacks(mPrefetchVisible);
+        for (PrefetchJob prefetchJob : mInFlight.values()) {
+            prefetchJob.mTask.cancel();
+        }
+        mInFlight.clear();
+        mPending.clear();
+    }
+
+    /**
+     * Stops prefetching for good, when the MainActivity is destroyed
+     */
+    void shutdown() {
+        pause();
+        mShutdown = true;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            schedule();
+        } else {
+            pause();
+        }
+    }
+
+    /**
+     * Queues a prefetch for each visible movie whose details are not held yet
+     */
+    private void prefetchVisible() {
+
+        if (mShutdown || isMetered() || isBudgetExhausted()) {
+            return;
+        }
+
+        ArrayList<Movie> movies = mMovieAdapter.getMovieData();
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        if (movies == null || first == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        for (int position = first; position <= last && position < movies.size(); position++) {
+            String tmdbId = movies.get(position).getTmdbId();
+            if (tmdbId == null || mInFlight.containsKey(tmdbId) || mPending.contains(tmdbId)
+                    || sDetailsCache.get(tmdbId) != null) {
+                continue;
+            }
+            mPending.add(tmdbId);
+        }
+        submitPending();
+    }
+
+    /**
+     * Submits the pending prefetches which fit within the concurrency budget
+     */
+    private void submitPending() {
+
+        while (!mShutdown && mInFlight.size() < mConcurrency && !mPending.isEmpty()) {
+            PrefetchJob prefetchJob = new PrefetchJob(mPending.poll());
+            mInFlight.put(prefetchJob.mTmdbId, prefetchJob);
+            prefetchJob.mTask = TaskScheduler.getInstance().submit(TaskScheduler.POOL_NETWORK,
+                    TaskScheduler.PRIORITY_PREFETCH, prefetchJob);
+        }
+    }
+
+    /**
+     * Fetches the details of a movie on a thread of the network pool
+     */
+    private void prefetch(final PrefetchJob prefetchJob, CancellationToken token) {
+
+        String tmdbId = prefetchJob.mTmdbId;
+        long wireBytesBefore = QueryUtils.getThreadWireBytes();
+        try {
+            if (!token.isCancelled() && !isBudgetExhausted()) {
+                MovieDetails details = QueryUtils.fetch(
+                        QueryUtils.createMovieDetailsQueryUrl(tmdbId),
+                        JSONUtils.MOVIE_DETAILS_PARSER, token);
+                sDetailsCache.put(tmdbId, details);
+                synchronized (DetailPrefetcher.class) {
+                    sPrefetchCount++;
+                }
+            }
+        } catch (Exception e) {
+            // Prefetching is best effort; the DetailActivity loads the details itself
+        } finally {
+            // Counts what the prefetch downloaded, even if it failed or was cancelled midway
+            mPrefetchedBytes.addAndGet(QueryUtils.getThreadWireBytes() - wireBytesBefore);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mInFlight.get(prefetchJob.mTmdbId) == prefetchJob) {
+                        mInFlight.remove(prefetchJob.mTmdbId);
+                        submitPending();
+                    }
+                }
+            });
+        }
+    }
+
+    private boolean isMetered() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivityManager == null
+                || ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager);
+    }
+
+    private boolean isBudgetExhausted() {
+        return mPrefetchedBytes.get() >= mByteBudget;
+    }
+
+    /**
+     * Prefetch of the details of a single movie
+     */
+    private final class PrefetchJob implements TaskScheduler.Job {
+
+        private final String mTmdbId;
+
+        // Task running the prefetch; set on the main thread right after it is submitted
+        private TaskScheduler.Task mTask;
+
+        private PrefetchJob(String tmdbId) {
+            mTmdbId = tmdbId;
+        }
+
+        @Override
+        public void run(CancellationToken token) {
+            prefetch(this, token);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.android.popularflicks;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.net.http.HttpResponseCache;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import com.example.android.popularflicks.utilites.CancellationToken;
+import com.example.android.popularflicks.utilites.PosterUrls;
+import com.example.android.popularflicks.utilites.TaskScheduler;
+import com.squareup.picasso.LruCache;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+import com.squareup.picasso.StatsSnapshot;
+import com.squareup.picasso.UrlConnectionDownloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Configures the Picasso instance shared by the whole app for loading posters
+ * <p>
+ * Its memory cache is sized from the memory class of the device, downloaded posters are kept
+ * in a bounded on-disk cache, and posters are decoded as RGB_565 bitmaps downsampled to the
+ * size of their view, which halves their memory and keeps the decodes small enough to avoid
+ * garbage collection pauses while the grid scrolls.
+ */
+
+final class ImageLoader {
+
+    // Name of the directory inside the app's cache directory holding the downloaded posters
+    private static final String POSTER_CACHE_DIRECTORY = "posters";
+
+    // Maximum size of the on-disk poster cache in bytes
+    private static final long POSTER_CACHE_MAX_SIZE_BYTES = 32 * 1024 * 1024;
+
+    // Fraction of the memory class of the device used by the memory cache
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    // Tags of the poster requests of the grid cells and of the prefetched posters,
+    // to pause or cancel them while the grid is flung
+    static final Object GRID_TAG = new Object();
+    static final Object PREFETCH_TAG = new Object();
+
+    private static Picasso sPicasso;
+
+    // Guards the installation of the platform cache, which is done off the main thread
+    private static final Object sHttpCacheLock = new Object();
+
+    /**
+     * Creates the shared Picasso instance and installs it as the instance returned by
+     * Picasso.with; must be called before any poster is loaded
+     *
+     * @param context used to get the memory class and the cache directory
+     */
+    static synchronized void install(Context context) {
+
+        if (sPicasso != null) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+
+        ActivityManager activityManager =
+                (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryCacheBytes = activityManager.getMemoryClass() * 1024 * 1024
+                / MEMORY_CACHE_FRACTION;
+
+        // Opening the platform cache reads its journal, so it is installed on the disk pool;
+        // the downloader waits for it before the first download
+        final Context cacheContext = appContext;
+        TaskScheduler.getInstance().submit(TaskScheduler.POOL_DISK,
+                TaskScheduler.PRIORITY_VISIBLE,
+                new TaskScheduler.Job() {
+                    @Override
+                    public void run(CancellationToken token) {
+                        installHttpCache(cacheContext);
+                    }
+                });
+
+        sPicasso = new Picasso.Builder(appContext)
+                .memoryCache(new LruCache(memoryCacheBytes))
+                .downloader(new PosterDownloader(appContext))
+                .defaultBitmapConfig(Bitmap.Config.RGB_565)
+                .build();
+        Picasso.setSingletonInstance(sPicasso);
+    }
+
+    /**
+     * Installs the platform cache holding the downloaded posters, unless it is installed already;
+     * Picasso's downloader reuses it instead of creating one sized from the free disk space, and
+     * the API requests do not use it. Does disk I/O, so must not be called on the main thread
+     *
+     * @param context used to get the cache directory
+     */
+    private static void installHttpCache(Context context) {
+
+        synchronized (sHttpCacheLock) {
+            if (HttpResponseCache.getInstalled() != null) {
+                return;
+            }
+            try {
+                HttpResponseCache.install(
+                        new File(context.getCacheDir(), POSTER_CACHE_DIRECTORY),
+                        POSTER_CACHE_MAX_SIZE_BYTES);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Downloader which makes sure the poster cache is installed before its first download, on
+     * Picasso's download thread, in case the disk pool has not installed it yet
+     */
+    private static final class PosterDownloader extends UrlConnectionDownloader {
+
+        private final Context mContext;
+
+        private PosterDownloader(Context context) {
+            super(context);
+            mContext = context;
+        }
+
+        @Override
+        public Response load(Uri uri, int networkPolicy) throws IOException {
+            installHttpCache(mContext);
+            return super.load(uri, networkPolicy);
+        }
+    }
+
+    /**
+     * @return the shared Picasso instance
+     */
+    static synchronized Picasso get(Context context) {
+        install(context);
+        return sPicasso;
+    }
+
+    /**
+     * Creates the request for the poster of a cell of the grid, whose cells all have the fixed
+     * size of the grid_poster dimensions, so that the cells bound before they are laid out and
+     * the prefetches ask for the same rendition
+     *
+     * @param context    used to read the size of the cells
+     * @param posterPath relative path of the poster, or a full poster URL
+     * @return the request decoded at the size of the cell and cropped to it, to be completed with
+     * placeholders and its target
+     */
+    static RequestCreator loadGridPoster(Context context, String posterPath) {
+
+        Resources resources = context.getResources();
+        int width = resources.getDimensionPixelSize(R.dimen.grid_poster_width);
+        int height = resources.getDimensionPixelSize(R.dimen.grid_poster_height);
+        return get(context)
+                .load(PosterUrls.forSize(context, posterPath, width, height))
+                .resize(width, height)
+                .centerCrop();
+    }
+
+    /**
+     * Displays a poster fitted inside a view, in the rendition matching the size of the view and
+     * decoded at that size; the request is only made once the size of the view is known
+     *
+     * @param view       the view in which the poster is displayed
+     * @param posterPath relative path of the poster, or a full poster URL
+     */
+    static void displayPoster(final ImageView view, final String posterPath) {
+
+        if (PosterUrls.getContentWidth(view) > 0 && PosterUrls.getContentHeight(view) > 0) {
+            loadFittingPoster(view, posterPath);
+            return;
+        }
+
+        // Waits for the view to be laid out to pick the rendition
+        final ViewTreeObserver observer = view.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (PosterUrls.getContentWidth(view) == 0
+                        || PosterUrls.getContentHeight(view) == 0) {
+                    return true;
+                }
+                ViewTreeObserver currentObserver =
+                        observer.isAlive() ? observer : view.getViewTreeObserver();
+                currentObserver.removeOnPreDrawListener(this);
+                loadFittingPoster(view, posterPath);
+                return true;
+            }
+        });
+    }
+
+    private static void loadFittingPoster(ImageView view, String posterPath) {
+        get(view.getContext())
+                .load(PosterUrls.forView(view, posterPath))
+                .resize(PosterUrls.getContentWidth(view), PosterUrls.getContentHeight(view))
+                .centerInside()
+                .into(view);
+    }
+
+    /**
+     * @return hit rates and sizes of the memory and disk caches
+     */
+    static synchronized String getStats() {
+
+        if (sPicasso == null) {
+            return "ImageLoader[not installed]";
+        }
+        StatsSnapshot snapshot = sPicasso.getSnapshot();
+        long lookups = snapshot.cacheHits + snapshot.cacheMisses;
+        StringBuilder builder = new StringBuilder("ImageLoader[memory: ")
+                .append(String.format(Locale.US, "hitRate=%.2f",
+                        lookups == 0 ? 0 : (double) snapshot.cacheHits / lookups))
+                .append(", hits=").append(snapshot.cacheHits)
+                .append(", misses=").append(snapshot.cacheMisses)
+                .append(", size=").append(snapshot.size).append('/').append(snapshot.maxSize)
+                .append(", decoded=").append(snapshot.originalBitmapCount)
+                .append(", resized=").append(snapshot.transformedBitmapCount)
+                .append("; downloads=").append(snapshot.downloadCount)
+                .append(", downloadedBytes=").append(snapshot.totalDownloadSize);
+
+        HttpResponseCache diskCache = HttpResponseCache.getInstalled();
+        if (diskCache != null) {
+            int requests = diskCache.getRequestCount();
+            builder.append("; disk: ")
+                    .append(String.format(Locale.US, "hitRate=%.2f",
+                            requests == 0 ? 0 : (double) diskCache.getHitCount() / requests))
+                    .append(", hits=").append(diskCache.getHitCount())
+                    .append(", network=").append(diskCache.getNetworkCount())
+                    .append(", size=").append(diskCache.size())
+                    .append('/').append(diskCache.maxSize());
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -1,11 +1,13 @@
 package com.example.android.popularflicks;
 
+import android.content.ContentValues;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.database.Cursor;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.AsyncTaskLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.GridLayoutManager;
@@ -18,12 +20,24 @@ import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import com.example.android.popularflicks.data.FavouritesIndex;
+import com.example.android.popularflicks.data.FavouritesWriter;
 import com.example.android.popularflicks.data.MovieContract.MovieEntry;
+import com.example.android.popularflicks.utilites.CancellationToken;
 import com.example.android.popularflicks.utilites.JSONUtils;
 import com.example.android.popularflicks.utilites.QueryUtils;
+import com.example.android.popularflicks.utilites.RequestCancelledException;
+import com.example.android.popularflicks.utilites.TaskScheduler;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -68,6 +82,9 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
     // MovieAdapter object
     private MovieAdapter mMovieAdapter;
 
+    // Loads further pages of the popular or top rated list while the grid is scrolled
+    private MoviePager mMoviePager;
+
     // Menu object
     private Menu mMenu;
 
@@ -77,15 +94,53 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
     // Constant identifier for Loader to load data from the favourites stored in an offline database
     private static final int DB_LOADER_ID = 756;
 
+    // Constant identifier for Loader to load further pages of data from the TMDB API
+    private static final int PAGE_LOADER_ID = 812;
+
+    // Constant identifier for Loader to load the list stored by the last successful load
+    private static final int STORED_LIST_LOADER_ID = 934;
+
+    // Prefetches the details of the visible movies while the grid is idle
+    private DetailPrefetcher mDetailPrefetcher;
+
+    // Prefetches the posters ahead of the scroll and pauses poster requests during flings
+    private PosterPrefetcher mPosterPrefetcher;
+
+    // Stores the last list loaded from the TMDB API for each sort order
+    private MovieListStore mMovieListStore;
+
+    // Whether the grid displays a stored list which has not been refreshed yet
+    private boolean mShowingStoredList;
+
     // Boolean to keep track of whether the favourites screen is selected or not
     private static boolean isFavouritesScreen = false;
 
-    // Boolean to keep track of whether the main activity is being resumed for the first time or not
-    private static boolean isNotFirstResume;
+    // Maximum number of TMDB ids looked up by a single query, below the SQLite limit of 999
+    // parameters
+    private static final int MAX_QUERIED_FAVOURITES = 500;
+
+    // Told of the favourite movies inserted or deleted by each write, however many it changed
+    private final FavouritesIndex.Listener mFavouritesListener = new FavouritesIndex.Listener() {
+        @Override
+        public void onFavouritesChanged(Set<String> tmdbIds) {
+            MainActivity.this.onFavouritesChanged(tmdbIds);
+        }
+    };
+
+    // Favourites displayed on the favourites screen, or null until they are loaded
+    private ArrayList<Movie> mFavourites;
+
+    // Number of pending changes of each favourite movie, so that only the query following its
+    // latest change is applied
+    private final HashMap<String, Integer> mPendingFavouriteChanges = new HashMap<>();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     private static final String MOVIES_KEY = "movies";
 
     private static final String SCROLL_POSITION_KEY = "position";
+
+    private static final String SHOWING_STORED_LIST_KEY = "showing_stored_list";
     private ArrayList<Movie> saveInstanceMovies;
 
     @Override
@@ -93,9 +148,6 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        // onCreate being called, this is the first time onResume is called
-        isNotFirstResume = false;
-
         // Binding Views using ButterKnife in the MainActivity
         ButterKnife.bind(this);
 
@@ -104,18 +156,57 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
 
         // Creating grid layout for the RecyclerView and setting number of columns 2 for portrait
         // orientation and 3 for landscape
+        GridLayoutManager layoutManager;
         if (getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT) {
-            mRecyclerView.setLayoutManager(new GridLayoutManager(this, 2));
+            layoutManager = new GridLayoutManager(this, 2);
         } else {
-            mRecyclerView.setLayoutManager(new GridLayoutManager(this, 3));
+            layoutManager = new GridLayoutManager(this, 3);
         }
+        mRecyclerView.setLayoutManager(layoutManager);
 
         // Creating MovieAdapter object
         mMovieAdapter = new MovieAdapter(this);
 
+        // Badges the posters of the favourite movies as the favourites index changes
+        FavouritesIndex.getInstance().addListener(mMovieAdapter);
+
         // Wiring up the RecyclerView with the MovieAdapter
         mRecyclerView.setAdapter(mMovieAdapter);
 
+        // Loads further pages as the end of the grid is approached
+        mMoviePager = new MoviePager(this,
+                getSupportLoaderManager(),
+                PAGE_LOADER_ID,
+                mMovieAdapter,
+                layoutManager,
+                getResources().getInteger(R.integer.page_prefetch_distance),
+                getResources().getInteger(R.integer.max_pages_in_memory));
+        mRecyclerView.addOnScrollListener(mMoviePager);
+
+        // Warms the details of the movies most likely to be tapped next
+        mDetailPrefetcher = new DetailPrefetcher(this,
+                layoutManager,
+                mMovieAdapter,
+                getResources().getInteger(R.integer.detail_prefetch_concurrency),
+                getResources().getInteger(R.integer.detail_prefetch_budget_kb) * 1024L);
+        mRecyclerView.addOnScrollListener(mDetailPrefetcher);
+
+        // Fetches the posters about to scroll in, and holds back poster requests during flings
+        mPosterPrefetcher = new PosterPrefetcher(ImageLoader.get(this),
+                layoutManager,
+                mMovieAdapter,
+                getResources().getInteger(R.integer.poster_prefetch_count));
+        mRecyclerView.addOnScrollListener(mPosterPrefetcher);
+
+        // Applies the favourites inserted or deleted while the favourites screen is displayed,
+        // including while the DetailActivity is on top of it; the index is told of every write
+        // of the Content Provider, which is not exported
+        FavouritesIndex.getInstance().addListener(mFavouritesListener);
+
+        // Lists stored by previous loads are displayed until they expire
+        mMovieListStore = new MovieListStore(this,
+                getResources().getInteger(R.integer.movie_list_ttl_minutes) * 60 * 1000L);
+
         // Using saved data
         if (savedInstanceState != null) {
 
@@ -129,6 +220,13 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
             ArrayList<Movie> movies = savedInstanceState.getParcelableArrayList(MOVIES_KEY);
             if (movies != null) {
                 mMovieAdapter.setMovieData(movies);
+                if (isFavouritesDisplayed()) {
+                    mFavourites = new ArrayList<>(movies);
+                }
+
+                // Restores the pages of the list matching the saved movies
+                mMoviePager.onRestoreInstanceState(savedInstanceState);
+                mShowingStoredList = savedInstanceState.getBoolean(SHOWING_STORED_LIST_KEY);
             } else {
                 populateActivity();
             }
@@ -166,12 +264,45 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
     protected void onResume() {
         super.onResume();
 
-        // Loads favourite movies from the offline database if the favourites option is selected
-        if (isNotFirstResume && mMenu != null) {
-            if (mMenu.findItem(R.id.menu_main_action_sort_favourites).isChecked()) {
-                loadMovieDataFromDatabase();
-            }
-        } else isNotFirstResume = true;
+        // Resumes prefetching the details of the visible movies; the favourites changed meanwhile
+        // were already applied by the favourites listener
+        mDetailPrefetcher.schedule();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        // Nothing is prefetched while the grid is not visible
+        mDetailPrefetcher.pause();
+        mPosterPrefetcher.pause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mDetailPrefetcher.shutdown();
+        FavouritesIndex.getInstance().removeListener(mMovieAdapter);
+        FavouritesIndex.getInstance().removeListener(mFavouritesListener);
+        mFavourites = null;
+    }
+
+    /**
+     * Prints the request timings and network statistics,
+     * e.g. through adb shell dumpsys activity com.example.android.popularflicks
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Network:");
+        QueryUtils.dumpStats(prefix + "  ", writer);
+        writer.println(prefix + "  " + TaskScheduler.getInstance());
+        writer.println(prefix + "  " + DetailPrefetcher.getStats());
+        writer.println(prefix + "Images:");
+        writer.println(prefix + "  " + ImageLoader.getStats());
+        writer.println(prefix + "  " + mPosterPrefetcher);
+        writer.println(prefix + "Favourites:");
+        writer.println(prefix + "  " + FavouritesWriter.getInstance());
     }
 
     /**
@@ -183,10 +314,16 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
         // Displays the RecyclerView
         showMovieDataView();
 
-        // Sets the data to null
+        // Sets the data to null and drops any further page being loaded
         mMovieAdapter.setMovieData(null);
+        mMoviePager.stop();
+
+        // Displays the stored list of the sort order at once, without waiting for the network;
+        // a network error is only displayed if there is no stored list
+        mShowingStoredList = false;
+        getSupportLoaderManager().restartLoader(STORED_LIST_LOADER_ID, null, this);
 
-        // Executed if network is available
+        // Executed if network is available; the list is refreshed in the background
         if (QueryUtils.isNetworkAvailable(this)) {
 
             // Handles loading using Loader
@@ -197,8 +334,6 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
             } else {
                 loaderManager.restartLoader(URL_LOADER_ID, null, this);
             }
-        } else {
-            showNetworkErrorMessage();
         }
     }
 
@@ -211,8 +346,15 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
         // Displays the RecyclerView
         showMovieDataView();
 
-        // Sets the data to null
-        mMovieAdapter.setMovieData(null);
+        // The displayed list is replaced by the favourites once they are loaded, binding only the
+        // cells which change; the favourites list is not paginated nor stored
+        mMoviePager.stop();
+        mShowingStoredList = false;
+        getSupportLoaderManager().destroyLoader(STORED_LIST_LOADER_ID);
+
+        // Changes observed until the favourites are loaded are part of the loaded list
+        mFavourites = null;
+        mPendingFavouriteChanges.clear();
 
 
         // Handles loading using Loader
@@ -225,6 +367,208 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
         }
     }
 
+    /**
+     * @return true if the favourites screen is selected
+     */
+    private boolean isFavouritesDisplayed() {
+        return !QueryUtils.ratingIsChecked && !QueryUtils.popularityIsChecked;
+    }
+
+    /**
+     * Applies the favourite movies inserted or deleted by a write to the favourites screen; the
+     * removed movies and those whose insert is not written yet are applied at once, and only the
+     * other inserted movies are queried on the disk pool
+     *
+     * @param tmdbIds TMDB ids of the changed movies, or null once the favourites index is loaded
+     */
+    private void onFavouritesChanged(Set<String> tmdbIds) {
+
+        // The other screens load the favourites once they are selected, and loading the index
+        // changes no favourite
+        if (!isFavouritesDisplayed() || tmdbIds == null) {
+            return;
+        }
+
+        if (mFavourites == null || tmdbIds.contains(null)) {
+            // The whole list is restarted if it is still loading, or loaded again if a movie
+            // is not known
+            loadMovieDataFromDatabase();
+            return;
+        }
+
+        // Only the query following the latest change of each movie is applied, and the changes
+        // known without a query supersede the queries still running
+        FavouritesIndex index = FavouritesIndex.getInstance();
+        FavouritesWriter writer = FavouritesWriter.getInstance();
+        LinkedHashMap<String, Movie> knownChanges = new LinkedHashMap<>();
+        final HashMap<String, Integer> changes = new HashMap<>();
+        final ArrayList<String> changedIds = new ArrayList<>();
+        for (String tmdbId : tmdbIds) {
+            ContentValues values = writer.getUnwrittenInsert(tmdbId);
+            if (!index.contains(tmdbId) || values != null) {
+                mPendingFavouriteChanges.remove(tmdbId);
+                knownChanges.put(tmdbId, values == null ? null : readFavourite(values));
+                continue;
+            }
+            Integer pending = mPendingFavouriteChanges.get(tmdbId);
+            int change = pending == null ? 1 : pending + 1;
+            mPendingFavouriteChanges.put(tmdbId, change);
+            changes.put(tmdbId, change);
+            changedIds.add(tmdbId);
+        }
+        applyFavouriteChanges(knownChanges);
+        if (changedIds.isEmpty()) {
+            return;
+        }
+
+        TaskScheduler.getInstance().submit(TaskScheduler.POOL_DISK,
+                TaskScheduler.PRIORITY_VISIBLE,
+                new TaskScheduler.Job() {
+                    @Override
+                    public void run(CancellationToken token) {
+                        final HashMap<String, Movie> favourites = queryFavourites(changedIds);
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                LinkedHashMap<String, Movie> latest = new LinkedHashMap<>();
+                                for (String tmdbId : changedIds) {
+                                    // Results of earlier changes of the movie are stale
+                                    Integer pending = mPendingFavouriteChanges.get(tmdbId);
+                                    if (pending == null || !pending.equals(changes.get(tmdbId))) {
+                                        continue;
+                                    }
+                                    mPendingFavouriteChanges.remove(tmdbId);
+                                    latest.put(tmdbId, favourites.get(tmdbId));
+                                }
+                                applyFavouriteChanges(latest);
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * @return the favourite movies among the TMDB ids, by TMDB id; the ids of the movies which
+     * are not favourites are missing
+     */
+    private HashMap<String, Movie> queryFavourites(ArrayList<String> tmdbIds) {
+
+        HashMap<String, Movie> favourites = new HashMap<>();
+        for (int start = 0; start < tmdbIds.size(); start += MAX_QUERIED_FAVOURITES) {
+            int end = Math.min(tmdbIds.size(), start + MAX_QUERIED_FAVOURITES);
+            StringBuilder selection = new StringBuilder(MovieEntry.COLUMN_TMDB_ID).append(" IN (");
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ", ?");
+            }
+            selection.append(')');
+
+            Cursor cursor = getContentResolver().query(MovieEntry.CONTENT_URI,
+                    null,
+                    selection.toString(),
+                    tmdbIds.subList(start, end).toArray(new String[end - start]),
+                    null);
+            if (cursor == null) {
+                continue;
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    Movie movie = readFavourite(cursor);
+                    favourites.put(movie.getTmdbId(), movie);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return favourites;
+    }
+
+    /**
+     * @return the favourite movie at the current position of the cursor
+     */
+    private static Movie readFavourite(Cursor cursor) {
+
+        String title = cursor.getString(cursor.getColumnIndexOrThrow(MovieEntry.COLUMN_TITLE));
+        String rating = cursor.getString(cursor.getColumnIndexOrThrow(MovieEntry.COLUMN_RATING));
+        String posterPath = cursor.getString
+                (cursor.getColumnIndexOrThrow(MovieEntry.COLUMN_POSTER_PATH));
+        String synopsis = cursor.getString
+                (cursor.getColumnIndexOrThrow(MovieEntry.COLUMN_SYNOPSIS));
+        String releaseDate = cursor.getString
+                (cursor.getColumnIndexOrThrow(MovieEntry.COLUMN_RELEASE_DATE));
+        String id = cursor.getString(cursor.getColumnIndexOrThrow(MovieEntry.COLUMN_TMDB_ID));
+        return new Movie(title, synopsis, posterPath, releaseDate, rating, id);
+    }
+
+    /**
+     * @return the favourite movie whose insert is not written yet
+     */
+    private static Movie readFavourite(ContentValues values) {
+        return new Movie(values.getAsString(MovieEntry.COLUMN_TITLE),
+                values.getAsString(MovieEntry.COLUMN_SYNOPSIS),
+                values.getAsString(MovieEntry.COLUMN_POSTER_PATH),
+                values.getAsString(MovieEntry.COLUMN_RELEASE_DATE),
+                values.getAsString(MovieEntry.COLUMN_RATING),
+                values.getAsString(MovieEntry.COLUMN_TMDB_ID));
+    }
+
+    /**
+     * Adds the inserted favourites to the end of the favourites screen, as the favourites are
+     * listed in the order they were inserted, and removes the deleted ones
+     *
+     * @param changes the movie if it is a favourite, or null if it was deleted, by TMDB id
+     */
+    private void applyFavouriteChanges(Map<String, Movie> changes) {
+
+        if (changes.isEmpty() || mFavourites == null || !isFavouritesDisplayed()) {
+            return;
+        }
+
+        boolean changed = false;
+        HashSet<String> displayedIds = new HashSet<>();
+        for (int i = mFavourites.size() - 1; i >= 0; i--) {
+            String tmdbId = mFavourites.get(i).getTmdbId();
+            if (changes.containsKey(tmdbId) && changes.get(tmdbId) == null) {
+                mFavourites.remove(i);
+                changed = true;
+            } else {
+                displayedIds.add(tmdbId);
+            }
+        }
+        for (Movie movie : changes.values()) {
+            if (movie != null && displayedIds.add(movie.getTmdbId())) {
+                mFavourites.add(movie);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+
+        // Only the inserted or removed cells are bound
+        mMovieAdapter.setMovieData(new ArrayList<>(mFavourites));
+        if (mFavourites.isEmpty()) {
+            showFavouritesEmptyView();
+        } else {
+            mFavouritesEmptyView.setVisibility(View.INVISIBLE);
+        }
+    }
+
+    /**
+     * Displays the empty view of the favourites screen, with its button to load popular movies
+     */
+    private void showFavouritesEmptyView() {
+
+        mFavouritesEmptyView.setVisibility(View.VISIBLE);
+
+        // Button to load popular movies; displayed if favourites list is empty
+        mLoadMoviesButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                loadPopularMovies();
+            }
+        });
+    }
+
     /**
      * Shows the RecyclerView which has the movie data, hiding the error TextViews
      */
@@ -377,7 +721,12 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
 
             // Called to load data from TMDB
             case URL_LOADER_ID:
-                return new AsyncTaskLoader<ArrayList<Movie>>(this) {
+
+                // Sort order of the list, under which it is stored once loaded
+                final String sortOrder = QueryUtils.getSortOrderPath();
+
+                return new TaskLoader<ArrayList<Movie>>(this,
+                        TaskScheduler.POOL_NETWORK, TaskScheduler.PRIORITY_VISIBLE) {
                     ArrayList<Movie> mMovies = null;
 
                     @Override
@@ -395,24 +744,26 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
                     }
 
                     @Override
-                    public ArrayList<Movie> loadInBackground() {
+                    protected ArrayList<Movie> loadInBackground(CancellationToken token) {
 
                         // URL for query is created
                         URL url = QueryUtils.createMainQueryUrl();
 
-                        // String to store the JSON Response received from the query
-                        String jsonResponse;
-
                         // ArrayList to store the movie data
                         ArrayList<Movie> listOfMovies = null;
 
                         try {
-                            // Http request is made and the returning JSON Response is stored in a String
-                            jsonResponse = QueryUtils.makeHttpRequest(url);
+                            // Http request is made and the movies are parsed from the JSON Response
+                            // as it is received; stops if the sort order changes meanwhile
+                            listOfMovies = QueryUtils.fetch(url, JSONUtils.MOVIES_PARSER, token);
 
-                            // Strings are obtained from JSON response and stored in ArrayList
-                            listOfMovies = JSONUtils.extractMoviesFromJson(jsonResponse);
+                            // Stores the list to be displayed at once next time
+                            if (listOfMovies != null && !listOfMovies.isEmpty()) {
+                                mMovieListStore.save(sortOrder, listOfMovies);
+                            }
 
+                        } catch (RequestCancelledException e) {
+                            // The result is not needed anymore and is discarded by the Loader
                         } catch (Exception e) {
                             e.printStackTrace();
                         }
@@ -428,7 +779,8 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
 
             //Called to load data from the offline database
             case DB_LOADER_ID:
-                return new AsyncTaskLoader<ArrayList<Movie>>(this) {
+                return new TaskLoader<ArrayList<Movie>>(this,
+                        TaskScheduler.POOL_DISK, TaskScheduler.PRIORITY_VISIBLE) {
 
                     // Object to store the list of movies received
                     ArrayList<Movie> mMovies = null;
@@ -444,7 +796,7 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
                     }
 
                     @Override
-                    public ArrayList<Movie> loadInBackground() {
+                    protected ArrayList<Movie> loadInBackground(CancellationToken token) {
 
 
                         // ArrayList to store the movie data
@@ -467,27 +819,9 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
 
                             // Stores the movies obtained in an ArrayList
                             while (!favouritesCursor.isAfterLast()) {
-                                String title = favouritesCursor.getString
-                                        (favouritesCursor.getColumnIndexOrThrow
-                                                (MovieEntry.COLUMN_TITLE));
-                                String rating = favouritesCursor.getString
-                                        (favouritesCursor.getColumnIndexOrThrow
-                                                (MovieEntry.COLUMN_RATING));
-                                String posterPath = favouritesCursor.getString
-                                        (favouritesCursor.getColumnIndexOrThrow
-                                                (MovieEntry.COLUMN_POSTER_PATH));
-                                String synopsis = favouritesCursor.getString
-                                        (favouritesCursor.getColumnIndexOrThrow
-                                                (MovieEntry.COLUMN_SYNOPSIS));
-                                String releaseDate = favouritesCursor.getString
-                                        (favouritesCursor.getColumnIndexOrThrow
-                                                (MovieEntry.COLUMN_TITLE));
-                                String id = favouritesCursor.getString
-                                        (favouritesCursor.getColumnIndexOrThrow
-                                                (MovieEntry.COLUMN_TMDB_ID));
 
                                 // Adds the movie parameters to the ArrayList
-                                listOfMovies.add(new Movie(title, synopsis, posterPath, releaseDate, rating, id));
+                                listOfMovies.add(readFavourite(favouritesCursor));
 
                                 // Moves the cursor to the next movie
                                 favouritesCursor.moveToNext();
@@ -510,6 +844,40 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
                         super.deliverResult(data);
                     }
                 };
+
+            // Called to load the list stored by the last successful load of the sort order
+            case STORED_LIST_LOADER_ID:
+
+                // Sort order of the list to be loaded
+                final String storedSortOrder = QueryUtils.getSortOrderPath();
+
+                return new TaskLoader<ArrayList<Movie>>(this,
+                        TaskScheduler.POOL_DISK, TaskScheduler.PRIORITY_VISIBLE) {
+
+                    // Stores the list read from disk
+                    ArrayList<Movie> mMovies = null;
+
+                    @Override
+                    protected void onStartLoading() {
+                        if (mMovies != null) {
+                            deliverResult(mMovies);
+                        } else {
+                            forceLoad();
+                        }
+                    }
+
+                    @Override
+                    protected ArrayList<Movie> loadInBackground(CancellationToken token) {
+                        return mMovieListStore.load(storedSortOrder);
+                    }
+
+                    @Override
+                    public void deliverResult(ArrayList<Movie> data) {
+                        mMovies = data;
+                        super.deliverResult(data);
+                    }
+                };
+
             default:
                 throw new UnsupportedOperationException("Unknown Loader Id " + id);
         }
@@ -520,6 +888,12 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
     public void onLoadFinished
             (Loader<ArrayList<Movie>> loader, ArrayList<Movie> listOfMovies) {
 
+        // The stored list is only displayed until a list is loaded
+        if (loader.getId() == STORED_LIST_LOADER_ID) {
+            onStoredListLoaded(listOfMovies);
+            return;
+        }
+
         // Results have been obtained and so loading indicator is hidden
         mLoadingIndicator.setVisibility(View.INVISIBLE);
 
@@ -528,27 +902,53 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
 
             saveInstanceMovies = listOfMovies;
             showMovieDataView();
+            // Only the movies which changed since the displayed list was loaded are updated
             mMovieAdapter.setMovieData(listOfMovies);
+            mShowingStoredList = false;
+            mDetailPrefetcher.schedule();
+
+            // Further changes of the favourites are applied to the loaded list
+            if (loader.getId() == DB_LOADER_ID) {
+                mFavourites = new ArrayList<>(listOfMovies);
+            }
+
+            // Further pages of the popular or top rated list are loaded while scrolling
+            if (loader.getId() == URL_LOADER_ID) {
+                mMoviePager.start(listOfMovies.size());
+            }
+        } else if (loader.getId() == URL_LOADER_ID && mShowingStoredList) {
+            // Keeps displaying the stored list, which could not be refreshed
         } else {
             // Displays error message
             showErrorMessage();
         }
 
         // Displays the empty view if the favourites list is empty
-        if (loader.getId() == DB_LOADER_ID && listOfMovies.size() == 0) {
-            mFavouritesEmptyView.setVisibility(View.VISIBLE);
-
-            // Button to load popular movies; displayed if favourites list is empty
-            mLoadMoviesButton.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    loadPopularMovies();
-                }
-            });
+        if (loader.getId() == DB_LOADER_ID && listOfMovies != null && listOfMovies.size() == 0) {
+            showFavouritesEmptyView();
         }
     }
 
 
+    /**
+     * Displays the stored list of the sort order, unless a list is already displayed
+     *
+     * @param storedMovies the stored list, or null if there is none younger than its time to live
+     */
+    private void onStoredListLoaded(ArrayList<Movie> storedMovies) {
+
+        boolean listDisplayed = mMovieAdapter.getItemCount() > 0;
+        if (storedMovies != null && !storedMovies.isEmpty() && !listDisplayed) {
+            mLoadingIndicator.setVisibility(View.INVISIBLE);
+            showMovieDataView();
+            mMovieAdapter.setMovieData(storedMovies);
+            mShowingStoredList = true;
+            mDetailPrefetcher.schedule();
+        } else if (!listDisplayed && !QueryUtils.isNetworkAvailable(this)) {
+            showNetworkErrorMessage();
+        }
+    }
+
     @Override
     public void onLoaderReset(Loader loader) {
         // Do nothing; Overriden to implement LoaderCallbacks
@@ -569,6 +969,10 @@ public class MainActivity extends AppCompatActivity implements MovieAdapter.Movi
                         .findFirstCompletelyVisibleItemPosition();
         outState.putInt(SCROLL_POSITION_KEY, scrollPosition);
 
+        // Saves the pages of the list held in the adapter
+        mMoviePager.onSaveInstanceState(outState);
+        outState.putBoolean(SHOWING_STORED_LIST_KEY, mShowingStoredList);
+
     }
 
     /**
@@ -58,7 +58,8 @@ public class Movie implements Parcelable {
     }
 
     /**
-     * @return path of the poster image of the movie
+     * @return relative TMDB path of the poster image of the movie, or its full URL for movies
+     * saved before the relative paths were kept; see PosterUrls for building its URL
      */
     String getPosterPath() {
         return mPosterPath;
@@ -130,6 +131,15 @@ public class Movie implements Parcelable {
         mReviews.add(new Review(author, content));
     }
 
+    /**
+     * Replaces the reviews of the movie
+     * @param reviews reviews received for the movie
+     */
+    public void setReviews(@NonNull ArrayList<Review> reviews) {
+        mReviews.clear();
+        mReviews.addAll(reviews);
+    }
+
     /**
      * Sets the Database Id to the parameter
      * @param id database id
@@ -147,6 +157,15 @@ public class Movie implements Parcelable {
         mTrailers.add(new Trailer(link, title));
     }
 
+    /**
+     * Replaces the trailers of the movie
+     * @param trailers trailers received for the movie
+     */
+    public void setTrailers(@NonNull ArrayList<Trailer> trailers) {
+        mTrailers.clear();
+        mTrailers.addAll(trailers);
+    }
+
 
     // Required to implement Parcelable which is to be used to pass the movie object around
     @Override
@@ -1,23 +1,37 @@
 package com.example.android.popularflicks;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.example.android.popularflicks.data.FavouritesIndex;
+import com.example.android.popularflicks.utilites.CancellationToken;
+import com.example.android.popularflicks.utilites.TaskScheduler;
 import com.squareup.picasso.Picasso;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Adapter to populate the RecyclerView in the MainActivity with {@link Movie} objects which contain
  * data of the movies queried
  */
 
-class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapterViewHolder> {
+class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapterViewHolder>
+        implements FavouritesIndex.Listener {
+
+    // Payload of the cells whose favourite badge changed, which only binds the badge again
+    private static final Object FAVOURITE_PAYLOAD = new Object();
 
     // ArrayList to store the data of the movies
     private ArrayList<Movie> mMovieData;
@@ -25,6 +39,15 @@ class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapterViewHol
     // Handles onClick behaviour
     private final MovieAdapterOnClickHandler mClickHandler;
 
+    // Applies the diffs calculated in the background
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Incremented whenever the displayed list changes, which invalidates a pending diff
+    private int mGeneration;
+
+    // List being diffed against the displayed list, or null
+    private ArrayList<Movie> mPendingMovies;
+
     /**
      * The interface that receives onClick messages
      */
@@ -39,6 +62,9 @@ class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapterViewHol
      */
     MovieAdapter(MovieAdapterOnClickHandler clickHandler) {
         mClickHandler = clickHandler;
+
+        // Lets the RecyclerView keep the cells of the movies which only moved
+        setHasStableIds(true);
     }
 
     /**
@@ -53,6 +79,9 @@ class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapterViewHol
         // ImageView object for the poster
         final ImageView mPosterImageView;
 
+        // Badge displayed on the poster of a favourite movie
+        final ImageView mFavouriteBadgeView;
+
         /**
          * Constructor that gets reference to the TextViews, ImageView and sets onClickListener
          */
@@ -62,6 +91,7 @@ class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapterViewHol
             mMovieTitleTextView = (TextView) itemView.findViewById(R.id.tv_title);
             mMovieRatingTextView = (TextView) itemView.findViewById(R.id.tv_rating);
             mPosterImageView = (ImageView) itemView.findViewById(R.id.iv_main_poster);
+            mFavouriteBadgeView = (ImageView) itemView.findViewById(R.id.iv_favourite_badge);
             itemView.setOnClickListener(this);
         }
 
@@ -117,9 +147,6 @@ class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapterViewHol
     @Override
     public void onBindViewHolder(MovieAdapterViewHolder holder, int position) {
 
-        // Gets context
-        Context context = holder.mMovieTitleTextView.getContext();
-
         // Sets the title of the movie in its TextView
         Movie currentMovie = mMovieData.get(position);
         holder.mMovieTitleTextView.setText(currentMovie.getTitle());
@@ -127,38 +154,284 @@ class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapterViewHol
         // Sets the user rating of the movie in its TextView
         holder.mMovieRatingTextView.setText(currentMovie.getUserRating());
 
-        // Sets the poster image of the movie in the ImageView along with placeholder and error image
-        Picasso.with(context)
-                .load(currentMovie.getPosterPath())
+        // Sets the poster image of the movie in the ImageView along with placeholder and error image,
+        // in the rendition fitting the cell and decoded at its size; visible cells are served
+        // before the prefetched posters
+        ImageLoader.loadGridPoster(holder.itemView.getContext(), currentMovie.getPosterPath())
+                .priority(Picasso.Priority.HIGH)
+                .tag(ImageLoader.GRID_TAG)
                 .placeholder(R.drawable.placeholder_movieimage)
                 .error(R.drawable.placeholder_movieimage)
                 .into(holder.mPosterImageView)
         ;
 
+        bindFavouriteBadge(holder, currentMovie);
     }
+
+    /**
+     * Only binds the favourite badge again when it is the only change of the cell
+     */
+    @Override
+    public void onBindViewHolder(MovieAdapterViewHolder holder, int position, List<Object> payloads) {
+
+        if (!payloads.isEmpty() && allFavouritePayloads(payloads)) {
+            bindFavouriteBadge(holder, mMovieData.get(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    private static boolean allFavouritePayloads(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != FAVOURITE_PAYLOAD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Shows the favourite badge if the movie is in the favourites index
+     */
+    private void bindFavouriteBadge(MovieAdapterViewHolder holder, Movie movie) {
+        boolean favourite = FavouritesIndex.getInstance().contains(movie.getTmdbId());
+        holder.mFavouriteBadgeView.setVisibility(favourite ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Binds the badges of the cells of the movies which were added to or removed from the
+     * favourites, or of every cell once the favourites index is loaded
+     *
+     * @param tmdbIds TMDB ids of the changed movies, or null if every movie may have changed
+     */
+    @Override
+    public void onFavouritesChanged(Set<String> tmdbIds) {
+
+        if (mMovieData == null || mMovieData.isEmpty()) {
+            return;
+        }
+        if (tmdbIds == null) {
+            notifyItemRangeChanged(0, mMovieData.size(), FAVOURITE_PAYLOAD);
+            return;
+        }
+        for (int position = 0; position < mMovieData.size(); position++) {
+            if (tmdbIds.contains(mMovieData.get(position).getTmdbId())) {
+                notifyItemChanged(position, FAVOURITE_PAYLOAD);
+            }
+        }
+    }
+    /**
+     * @return the TMDB id of the movie, which is stable across lists
+     */
+    @Override
+    public long getItemId(int position) {
+
+        String tmdbId = mMovieData.get(position).getTmdbId();
+        try {
+            return Long.parseLong(tmdbId);
+        } catch (NumberFormatException e) {
+            return tmdbId == null ? RecyclerView.NO_ID : tmdbId.hashCode();
+        }
+    }
+
     @Override
     public int getItemCount() {
         return mMovieData == null ? 0: mMovieData.size();
     }
 
     /**
+     * Replaces the list; once a list is displayed, the new list is diffed against it by TMDB id
+     * on a background thread and only the movies which were inserted, removed, moved or changed
+     * are notified, so that a reload which changed nothing binds no cell again
+     *
      * @param movieData used to initialise the value for the ArrayList in the Adapter object
      */
     void setMovieData(ArrayList<Movie> movieData) {
 
-        mMovieData = movieData;
+        // A newer list supersedes any diff still being calculated
+        mGeneration++;
+        mPendingMovies = null;
+
+        if (movieData == null || mMovieData == null || mMovieData.isEmpty()) {
+            // Copies the list, as further pages are added to it and the received list may be
+            // held by a Loader
+            mMovieData = movieData == null ? null : new ArrayList<>(movieData);
+
+            // Notifies any registered observers that the data set has changed
+            notifyDataSetChanged();
+            return;
+        }
+        submitDiff(new ArrayList<>(movieData));
+    }
+
+    /**
+     * Diffs the displayed list against a new list on the CPU pool and applies the result on the
+     * main thread, unless the displayed list changed meanwhile
+     *
+     * @param newMovies the new list, which is not modified afterwards
+     */
+    private void submitDiff(final ArrayList<Movie> newMovies) {
+
+        final int generation = mGeneration;
+        final ArrayList<Movie> oldMovies = new ArrayList<>(mMovieData);
+        mPendingMovies = newMovies;
+
+        TaskScheduler.getInstance().submit(TaskScheduler.POOL_CPU, TaskScheduler.PRIORITY_VISIBLE,
+                new TaskScheduler.Job() {
+                    @Override
+                    public void run(CancellationToken token) {
+                        final DiffUtil.DiffResult diffResult =
+                                DiffUtil.calculateDiff(new MovieDiffCallback(oldMovies, newMovies));
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                // The diff only applies to the list it was calculated from
+                                if (generation != mGeneration) {
+                                    return;
+                                }
+                                mPendingMovies = null;
+                                mMovieData = newMovies;
+                                diffResult.dispatchUpdatesTo(MovieAdapter.this);
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Invalidates the diff being calculated after the displayed list changed, and diffs the
+     * changed list against the new list instead
+     *
+     * @param newMovies the new list including the same change, or null if no diff is pending
+     */
+    private void resubmitDiff(ArrayList<Movie> newMovies) {
+
+        mGeneration++;
+        if (newMovies != null) {
+            submitDiff(newMovies);
+        }
+    }
+
+    /**
+     * Adds movies at the end of the list, notifying only the inserted range
+     *
+     * @param movies the movies to be added
+     */
+    void appendMovieData(ArrayList<Movie> movies) {
+
+        if (mMovieData == null) {
+            mMovieData = new ArrayList<>();
+        }
+        int positionStart = mMovieData.size();
+        mMovieData.addAll(movies);
+        notifyItemRangeInserted(positionStart, movies.size());
+
+        if (mPendingMovies != null) {
+            ArrayList<Movie> pendingMovies = new ArrayList<>(mPendingMovies);
+            pendingMovies.addAll(movies);
+            resubmitDiff(pendingMovies);
+        } else {
+            resubmitDiff(null);
+        }
+    }
+
+    /**
+     * Adds movies at the start of the list, notifying only the inserted range
+     *
+     * @param movies the movies to be added
+     */
+    void prependMovieData(ArrayList<Movie> movies) {
 
-        // Notifies any registered observers that the data set has changed
-        notifyDataSetChanged();
+        if (mMovieData == null) {
+            mMovieData = new ArrayList<>();
+        }
+        mMovieData.addAll(0, movies);
+        notifyItemRangeInserted(0, movies.size());
+
+        if (mPendingMovies != null) {
+            ArrayList<Movie> pendingMovies = new ArrayList<>(mPendingMovies);
+            pendingMovies.addAll(0, movies);
+            resubmitDiff(pendingMovies);
+        } else {
+            resubmitDiff(null);
+        }
     }
 
     /**
-     * @return the movie data stored in the Adapter
+     * Removes a range of movies from the list, notifying only the removed range
+     *
+     * @param positionStart position of the first movie to be removed
+     * @param itemCount     number of movies to be removed
+     */
+    void removeMovieData(int positionStart, int itemCount) {
+
+        List<Movie> removed = mMovieData.subList(positionStart, positionStart + itemCount);
+
+        // The movies are removed from the pending list too, so that the diff does not add them back
+        ArrayList<Movie> pendingMovies = null;
+        if (mPendingMovies != null) {
+            HashSet<String> removedIds = new HashSet<>();
+            for (Movie movie : removed) {
+                removedIds.add(movie.getTmdbId());
+            }
+            pendingMovies = new ArrayList<>(mPendingMovies.size());
+            for (Movie movie : mPendingMovies) {
+                if (!removedIds.contains(movie.getTmdbId())) {
+                    pendingMovies.add(movie);
+                }
+            }
+        }
+
+        removed.clear();
+        notifyItemRangeRemoved(positionStart, itemCount);
+        resubmitDiff(pendingMovies);
+    }
+
+    /**
+     * @return the movie data displayed by the Adapter
      */
     ArrayList<Movie> getMovieData() {
 
        return mMovieData;
     }
 
+    /**
+     * Matches the movies of two lists by TMDB id, and compares what their cells display
+     */
+    private static class MovieDiffCallback extends DiffUtil.Callback {
+
+        private final ArrayList<Movie> mOldMovies;
+        private final ArrayList<Movie> mNewMovies;
+
+        MovieDiffCallback(ArrayList<Movie> oldMovies, ArrayList<Movie> newMovies) {
+            mOldMovies = oldMovies;
+            mNewMovies = newMovies;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldMovies.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewMovies.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return TextUtils.equals(mOldMovies.get(oldItemPosition).getTmdbId(),
+                    mNewMovies.get(newItemPosition).getTmdbId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            Movie oldMovie = mOldMovies.get(oldItemPosition);
+            Movie newMovie = mNewMovies.get(newItemPosition);
+            return TextUtils.equals(oldMovie.getTitle(), newMovie.getTitle())
+                    && TextUtils.equals(oldMovie.getUserRating(), newMovie.getUserRating())
+                    && TextUtils.equals(oldMovie.getPosterPath(), newMovie.getPosterPath());
+        }
+    }
 
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.example.android.popularflicks;
+
+import java.util.ArrayList;
+
+/**
+ * Contains the reviews and trailers of a movie received together from the TMDB API
+ */
+
+public class MovieDetails {
+
+    // Reviews of the movie
+    private final ArrayList<Movie.Review> mReviews;
+
+    // YouTube trailers of the movie
+    private final ArrayList<Movie.Trailer> mTrailers;
+
+    // Constructor that sets the values of the member fields to the received values
+    public MovieDetails(ArrayList<Movie.Review> reviews, ArrayList<Movie.Trailer> trailers) {
+        mReviews = reviews;
+        mTrailers = trailers;
+    }
+
+    /**
+     * @return reviews of the movie
+     */
+    public ArrayList<Movie.Review> getReviews() {
+        return mReviews;
+    }
+
+    /**
+     * @return YouTube trailers of the movie
+     */
+    public ArrayList<Movie.Trailer> getTrailers() {
+        return mTrailers;
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.android.popularflicks;
+
+import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+
+/**
+ * Persists the last successfully loaded first page of the popular and top rated lists, so that
+ * the MainActivity can render a list at once, or while offline, before it is refreshed
+ * <p>
+ * Each list is stored as a small JSON file named after its sort order, along with the time at
+ * which it was saved. Lists older than the time to live are not returned.
+ */
+
+class MovieListStore {
+
+    // Name of the directory inside the app's files directory in which the lists are stored
+    private static final String DIRECTORY = "movie-lists";
+
+    // Keys of the stored JSON
+    private static final String KEY_SAVED_AT = "saved_at";
+    private static final String KEY_MOVIES = "movies";
+    private static final String KEY_ID = "id";
+    private static final String KEY_TITLE = "title";
+    private static final String KEY_SYNOPSIS = "overview";
+    private static final String KEY_POSTER_PATH = "poster_path";
+    private static final String KEY_RELEASE_DATE = "release_date";
+    private static final String KEY_USER_RATING = "vote_average";
+
+    private final File mDirectory;
+
+    // Time after which a stored list is not returned anymore
+    private final long mTimeToLiveMillis;
+
+    /**
+     * @param context          used to get the files directory of the app
+     * @param timeToLiveMillis time after which a stored list is not returned anymore
+     */
+    MovieListStore(Context context, long timeToLiveMillis) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY);
+        mTimeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Reads the stored list of a sort order
+     *
+     * @param sortOrder the sort order of the list, e.g. popular
+     * @return the stored movies, or null if there is no list younger than the time to live
+     */
+    ArrayList<Movie> load(String sortOrder) {
+
+        File file = fileFor(sortOrder);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        JsonReader reader = null;
+        try {
+            reader = new JsonReader(new InputStreamReader(
+                    new BufferedInputStream(new FileInputStream(file)), "UTF-8"));
+            long savedAt = 0;
+            ArrayList<Movie> movies = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (KEY_SAVED_AT.equals(name)) {
+                    savedAt = reader.nextLong();
+                } else if (KEY_MOVIES.equals(name)) {
+                    movies = readMovies(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            long age = System.currentTimeMillis() - savedAt;
+            return age >= 0 && age < mTimeToLiveMillis ? movies : null;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // A corrupt list is dropped and replaced by the next successful load
+            e.printStackTrace();
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                    // Nothing left to do with a file which could not be closed
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the list of a sort order, replacing the previous one
+     *
+     * @param sortOrder the sort order of the list, e.g. popular
+     * @param movies    the movies of the first page of the list
+     */
+    void save(String sortOrder, ArrayList<Movie> movies) {
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+
+        // Written to a temporary file first, so a failed write never leaves a truncated list
+        File file = fileFor(sortOrder);
+        File tempFile = new File(mDirectory, file.getName() + ".tmp");
+        JsonWriter writer = null;
+        try {
+            writer = new JsonWriter(new OutputStreamWriter(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)), "UTF-8"));
+            writer.beginObject();
+            writer.name(KEY_SAVED_AT).value(System.currentTimeMillis());
+            writer.name(KEY_MOVIES).beginArray();
+            for (Movie movie : movies) {
+                writer.beginObject();
+                writer.name(KEY_ID).value(movie.getTmdbId());
+                writer.name(KEY_TITLE).value(movie.getTitle());
+                writer.name(KEY_SYNOPSIS).value(movie.getSynopsis());
+                writer.name(KEY_POSTER_PATH).value(movie.getPosterPath());
+                writer.name(KEY_RELEASE_DATE).value(movie.getReleaseDate());
+                writer.name(KEY_USER_RATING).value(movie.getUserRating());
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+            writer.close();
+            writer = null;
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // The temporary file is deleted either way
+                }
+            }
+        }
+    }
+
+    private ArrayList<Movie> readMovies(JsonReader reader) throws IOException {
+
+        ArrayList<Movie> movies = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String id = null, title = null, synopsis = null, posterPath = null,
+                    releaseDate = null, userRating = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                String value;
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    value = null;
+                } else {
+                    value = reader.nextString();
+                }
+                switch (name) {
+                    case KEY_ID:
+                        id = value;
+                        break;
+                    case KEY_TITLE:
+                        title = value;
+                        break;
+                    case KEY_SYNOPSIS:
+                        synopsis = value;
+                        break;
+                    case KEY_POSTER_PATH:
+                        posterPath = value;
+                        break;
+                    case KEY_RELEASE_DATE:
+                        releaseDate = value;
+                        break;
+                    case KEY_USER_RATING:
+                        userRating = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            reader.endObject();
+            movies.add(new Movie(title, synopsis, posterPath, releaseDate, userRating, id));
+        }
+        reader.endArray();
+        return movies;
+    }
+
+    private File fileFor(String sortOrder) {
+        return new File(mDirectory, sortOrder + ".json");
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.popularflicks;
+
+import java.util.ArrayList;
+
+/**
+ * Contains one page of a paginated list of movies received from the TMDB API
+ * along with its position in the list
+ */
+
+public class MoviePage {
+
+    // Number of the page, starting from 1
+    private final int mPage;
+
+    // Total number of pages in the list
+    private final int mTotalPages;
+
+    // Movies contained in the page
+    private final ArrayList<Movie> mMovies;
+
+    // Constructor that sets the values of the member fields to the received values
+    public MoviePage(int page, int totalPages, ArrayList<Movie> movies) {
+        mPage = page;
+        mTotalPages = totalPages;
+        mMovies = movies;
+    }
+
+    /**
+     * @return number of the page, starting from 1
+     */
+    public int getPage() {
+        return mPage;
+    }
+
+    /**
+     * @return total number of pages in the list
+     */
+    public int getTotalPages() {
+        return mTotalPages;
+    }
+
+    /**
+     * @return movies contained in the page
+     */
+    public ArrayList<Movie> getMovies() {
+        return mMovies;
+    }
+}
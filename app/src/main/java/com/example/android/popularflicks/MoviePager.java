@@ -0,0 +1,339 @@
+package com.example.android.popularflicks;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.example.android.popularflicks.utilites.CancellationToken;
+import com.example.android.popularflicks.utilites.JSONUtils;
+import com.example.android.popularflicks.utilites.QueryUtils;
+import com.example.android.popularflicks.utilites.RequestCancelledException;
+import com.example.android.popularflicks.utilites.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Loads further pages of the popular or top rated list while the grid in the MainActivity
+ * is being scrolled, giving it endless scrolling
+ * <p>
+ * The next page is requested once the last visible movie comes within the prefetch distance
+ * of the end of the grid, with at most one page being loaded at a time. The distance is checked
+ * on every scroll and after every layout of the grid, so that pages keep being requested while
+ * the loaded ones do not fill the grid. Only a window of
+ * consecutive pages is held in memory; pages falling out of the window are dropped and loaded
+ * again if the user scrolls back to them.
+ */
+
+class MoviePager extends RecyclerView.OnScrollListener
+        implements LoaderManager.LoaderCallbacks<MoviePage> {
+
+    // Keys for the saved state of the pager
+    private static final String PAGE_SIZES_KEY = "page_sizes";
+    private static final String FIRST_PAGE_KEY = "first_page";
+    private static final String TOTAL_PAGES_KEY = "total_pages";
+
+    // Key for the number of the page to be loaded in the Loader arguments
+    private static final String PAGE_KEY = "page";
+
+    // No page is being loaded
+    private static final int NO_PAGE = 0;
+
+    private final Context mContext;
+    private final LoaderManager mLoaderManager;
+    private final int mLoaderId;
+    private final MovieAdapter mMovieAdapter;
+    private final GridLayoutManager mLayoutManager;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Number of movies from either end of the grid at which the adjacent page is requested
+    private final int mPrefetchDistance;
+
+    // Maximum number of pages held in the adapter
+    private final int mMaxPages;
+
+    // Number of movies the adapter holds for each page of the window, first page first
+    private final ArrayList<Integer> mPageSizes = new ArrayList<>();
+
+    // Number of the first page held in the adapter
+    private int mFirstPage;
+
+    // Total number of pages of the list; unknown until a further page has been loaded
+    private int mTotalPages = Integer.MAX_VALUE;
+
+    // Page which is being loaded, or NO_PAGE
+    private int mRequestedPage = NO_PAGE;
+
+    // Whether the adapter is displaying a paginated list
+    private boolean mEnabled;
+
+    /**
+     * @param context          used to create the Loaders
+     * @param loaderManager    LoaderManager of the MainActivity
+     * @param loaderId         identifier of the Loader used for the pages
+     * @param movieAdapter     adapter of the grid to which the pages are added
+     * @param layoutManager    layout manager of the grid
+     * @param prefetchDistance number of movies from the end of the grid at which the next page
+     *                         is requested
+     * @param maxPages         maximum number of pages held in the adapter
+     */
+    MoviePager(Context context,
+               LoaderManager loaderManager,
+               int loaderId,
+               MovieAdapter movieAdapter,
+               GridLayoutManager layoutManager,
+               int prefetchDistance,
+               int maxPages) {
+
+        mContext = context;
+        mLoaderManager = loaderManager;
+        mLoaderId = loaderId;
+        mMovieAdapter = movieAdapter;
+        mLayoutManager = layoutManager;
+        mPrefetchDistance = prefetchDistance;
+        mMaxPages = Math.max(2, maxPages);
+
+        // A page Loader left over from a previous instance of the activity reports to its
+        // old callbacks; it is dropped and its page is requested again when required
+        if (mLoaderManager.getLoader(mLoaderId) != null) {
+            mLoaderManager.destroyLoader(mLoaderId);
+        }
+    }
+
+    /**
+     * Starts paginating after the first page of the list has been set in the adapter
+     *
+     * @param firstPageSize number of movies in the first page
+     */
+    void start(int firstPageSize) {
+
+        stop();
+        mPageSizes.add(firstPageSize);
+        mFirstPage = 1;
+        mEnabled = true;
+    }
+
+    /**
+     * Stops paginating and drops any page being loaded, e.g. when the sort order changes
+     */
+    void stop() {
+
+        mEnabled = false;
+        mMainHandler.removeCallbacks(mCheckDistance);
+        mPageSizes.clear();
+        mTotalPages = Integer.MAX_VALUE;
+        mRequestedPage = NO_PAGE;
+        mLoaderManager.destroyLoader(mLoaderId);
+    }
+
+    /**
+     * Saves the window of pages held in the adapter
+     *
+     * @param outState the Bundle in which the state of the MainActivity is saved
+     */
+    void onSaveInstanceState(Bundle outState) {
+
+        if (!mEnabled) {
+            return;
+        }
+        int[] pageSizes = new int[mPageSizes.size()];
+        for (int index = 0; index < pageSizes.length; index++) {
+            pageSizes[index] = mPageSizes.get(index);
+        }
+        outState.putIntArray(PAGE_SIZES_KEY, pageSizes);
+        outState.putInt(FIRST_PAGE_KEY, mFirstPage);
+        outState.putInt(TOTAL_PAGES_KEY, mTotalPages);
+    }
+
+    /**
+     * Restores the window of pages matching the movies restored in the adapter
+     *
+     * @param savedInstanceState the Bundle in which the state of the MainActivity was saved
+     */
+    void onRestoreInstanceState(Bundle savedInstanceState) {
+
+        int[] pageSizes = savedInstanceState.getIntArray(PAGE_SIZES_KEY);
+        if (pageSizes == null) {
+            return;
+        }
+        stop();
+        for (int pageSize : pageSizes) {
+            mPageSizes.add(pageSize);
+        }
+        mFirstPage = savedInstanceState.getInt(FIRST_PAGE_KEY, 1);
+        mTotalPages = savedInstanceState.getInt(TOTAL_PAGES_KEY, Integer.MAX_VALUE);
+        mEnabled = true;
+    }
+
+    /**
+     * Requests the adjacent page once either end of the window comes within the prefetch
+     * distance; the RecyclerView also calls this with no scroll after a layout which changed the
+     * visible movies, e.g. once a page which does not fill the grid is displayed
+     */
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        requestAdjacentPage(dy);
+    }
+
+    /**
+     * Requests the adjacent page in the direction of the scroll, or in either direction, the
+     * next page first, if the grid was not scrolled
+     */
+    private void requestAdjacentPage(int dy) {
+
+        if (!mEnabled || mRequestedPage != NO_PAGE) {
+            return;
+        }
+
+        int lastPage = mFirstPage + mPageSizes.size() - 1;
+        if (dy >= 0 && lastPage < mTotalPages) {
+            int lastVisible = mLayoutManager.findLastVisibleItemPosition();
+            if (lastVisible != RecyclerView.NO_POSITION
+                    && mMovieAdapter.getItemCount() - 1 - lastVisible <= mPrefetchDistance) {
+                requestPage(lastPage + 1);
+                return;
+            }
+        }
+        if (dy <= 0 && mFirstPage > 1) {
+            int firstVisible = mLayoutManager.findFirstVisibleItemPosition();
+            if (firstVisible != RecyclerView.NO_POSITION && firstVisible <= mPrefetchDistance) {
+                requestPage(mFirstPage - 1);
+            }
+        }
+    }
+
+    // Checks the distance again once a page was added, in case it did not change the visible
+    // movies and so triggers no layout, e.g. when all of its movies were displayed already
+    private final Runnable mCheckDistance = new Runnable() {
+        @Override
+        public void run() {
+            requestAdjacentPage(0);
+        }
+    };
+
+    /**
+     * Starts loading a page in the background
+     */
+    private void requestPage(int page) {
+
+        mRequestedPage = page;
+        Bundle args = new Bundle();
+        args.putInt(PAGE_KEY, page);
+        mLoaderManager.restartLoader(mLoaderId, args, this);
+    }
+
+    @Override
+    public Loader<MoviePage> onCreateLoader(int id, Bundle args) {
+
+        final int page = args.getInt(PAGE_KEY);
+        return new TaskLoader<MoviePage>(mContext,
+                TaskScheduler.POOL_NETWORK, TaskScheduler.PRIORITY_BACKGROUND) {
+
+            // Stores the loaded page
+            MoviePage mMoviePage = null;
+
+            @Override
+            protected void onStartLoading() {
+                if (mMoviePage != null) {
+                    deliverResult(mMoviePage);
+                } else {
+                    forceLoad();
+                }
+            }
+
+            @Override
+            protected MoviePage loadInBackground(CancellationToken token) {
+                try {
+                    return QueryUtils.fetch(QueryUtils.createMainQueryUrl(page),
+                            JSONUtils.MOVIE_PAGE_PARSER, token);
+                } catch (RequestCancelledException e) {
+                    return null;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+
+            @Override
+            public void deliverResult(MoviePage data) {
+                mMoviePage = data;
+                super.deliverResult(data);
+            }
+        };
+    }
+
+    @Override
+    public void onLoadFinished(Loader<MoviePage> loader, MoviePage moviePage) {
+
+        // Ignores results for pages which are not awaited anymore
+        if (!mEnabled || mRequestedPage == NO_PAGE) {
+            return;
+        }
+        int requestedPage = mRequestedPage;
+        mRequestedPage = NO_PAGE;
+
+        // The page is requested again on the next scroll
+        if (moviePage == null) {
+            return;
+        }
+        mTotalPages = moviePage.getTotalPages();
+
+        // Drops movies which moved between pages since the adjacent page was loaded
+        ArrayList<Movie> movies = withoutDisplayedMovies(moviePage.getMovies());
+
+        if (requestedPage > mFirstPage) {
+            mMovieAdapter.appendMovieData(movies);
+            mPageSizes.add(movies.size());
+
+            // Drops the first page of the window if the window is full
+            if (mPageSizes.size() > mMaxPages) {
+                mMovieAdapter.removeMovieData(0, mPageSizes.remove(0));
+                mFirstPage++;
+            }
+        } else {
+            mMovieAdapter.prependMovieData(movies);
+            mPageSizes.add(0, movies.size());
+            mFirstPage = requestedPage;
+
+            // Drops the last page of the window if the window is full
+            if (mPageSizes.size() > mMaxPages) {
+                int lastPageSize = mPageSizes.remove(mPageSizes.size() - 1);
+                mMovieAdapter.removeMovieData(mMovieAdapter.getItemCount() - lastPageSize,
+                        lastPageSize);
+            }
+        }
+        mMainHandler.post(mCheckDistance);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<MoviePage> loader) {
+        // Do nothing; Overriden to implement LoaderCallbacks
+    }
+
+    /**
+     * @return the movies which are not displayed in the grid already
+     */
+    private ArrayList<Movie> withoutDisplayedMovies(ArrayList<Movie> movies) {
+
+        HashSet<String> displayedIds = new HashSet<>();
+        ArrayList<Movie> displayedMovies = mMovieAdapter.getMovieData();
+        if (displayedMovies != null) {
+            for (Movie movie : displayedMovies) {
+                displayedIds.add(movie.getTmdbId());
+            }
+        }
+
+        ArrayList<Movie> newMovies = new ArrayList<>(movies.size());
+        for (Movie movie : movies) {
+            if (displayedIds.add(movie.getTmdbId())) {
+                newMovies.add(movie);
+            }
+        }
+        return newMovies;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.android.popularflicks;
+
+import android.app.Application;
+
+import com.example.android.popularflicks.data.FavouritesIndex;
+import com.example.android.popularflicks.utilites.QueryUtils;
+import com.example.android.popularflicks.utilites.TmdbClient;
+
+/**
+ * Sets up the process wide state shared by the activities of the app
+ */
+public class PopularFlicksApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Configures the keep-alive pool of the process before any connection is opened
+        TmdbClient.configureConnectionPool(TmdbClient.DEFAULT_MAX_IDLE_CONNECTIONS,
+                TmdbClient.DEFAULT_KEEP_ALIVE_DURATION_MILLIS);
+
+        // Creates the shared TMDB client used by every request
+        QueryUtils.setClient(new TmdbClient());
+
+        // Installs the on-disk cache for the JSON Responses received from the TMDB API
+        QueryUtils.installResponseCache(this);
+
+        // Configures the image loader before any poster is requested
+        ImageLoader.install(this);
+
+        // Reads the ids of the favourite movies in the background, so that the screens can tell
+        // the favourites apart without querying the database
+        FavouritesIndex.getInstance().load(this);
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.android.popularflicks;
+
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.squareup.picasso.Picasso;
+
+import java.util.ArrayList;
+
+/**
+ * Prefetches the posters of the movies about to scroll into the grid of the MainActivity, and
+ * holds back the poster requests while the grid is flung
+ * <p>
+ * The posters of the next movies in the direction of the scroll are fetched into the caches of
+ * the {@link ImageLoader} at low priority, behind the posters of the visible cells, in the size
+ * of the cells so that binding them is a memory cache hit. While the grid is flung, the requests
+ * of the cells are paused, as the cells are likely to scroll away before their poster arrives,
+ * and the prefetches are cancelled; both resume once the grid is dragged or settles.
+ */
+
+class PosterPrefetcher extends RecyclerView.OnScrollListener {
+
+    private final Picasso mPicasso;
+    private final LinearLayoutManager mLayoutManager;
+    private final MovieAdapter mMovieAdapter;
+
+    // Number of posters prefetched ahead of the visible cells
+    private final int mLookAhead;
+
+    // Direction of the last scroll, 1 towards the end of the grid and -1 towards its start
+    private int mDirection = 1;
+
+    // Current scroll state of the grid
+    private int mScrollState = RecyclerView.SCROLL_STATE_IDLE;
+
+    // Range of positions whose posters were prefetched; empty when mFirstPrefetched is
+    // greater than mLastPrefetched
+    private int mFirstPrefetched = Integer.MAX_VALUE;
+    private int mLastPrefetched = Integer.MIN_VALUE;
+
+    // Number of posters prefetched
+    private int mPrefetchCount;
+
+    /**
+     * @param picasso       the shared Picasso instance
+     * @param layoutManager layout manager of the grid
+     * @param movieAdapter  adapter of the grid
+     * @param lookAhead     number of posters prefetched ahead of the visible cells
+     */
+    PosterPrefetcher(Picasso picasso,
+                     LinearLayoutManager layoutManager,
+                     MovieAdapter movieAdapter,
+                     int lookAhead) {
+
+        mPicasso = picasso;
+        mLayoutManager = layoutManager;
+        mMovieAdapter = movieAdapter;
+        mLookAhead = lookAhead;
+
+        // Positions shift when the list changes, so the prefetched range is forgotten
+        mMovieAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                clearPrefetchedRange();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                clearPrefetchedRange();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                clearPrefetchedRange();
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                clearPrefetchedRange();
+            }
+        });
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+
+        mScrollState = newState;
+        if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+            // The cells bound during the fling get their posters once it slows down, and the
+            // prefetched posters would be far behind the visible cells by then
+            mPicasso.pauseTag(ImageLoader.GRID_TAG);
+            mPicasso.cancelTag(ImageLoader.PREFETCH_TAG);
+            clearPrefetchedRange();
+        } else {
+            mPicasso.resumeTag(ImageLoader.GRID_TAG);
+            prefetch(recyclerView);
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+
+        if (dy != 0) {
+            mDirection = dy > 0 ? 1 : -1;
+        }
+        if (mScrollState != RecyclerView.SCROLL_STATE_SETTLING) {
+            prefetch(recyclerView);
+        }
+    }
+
+    /**
+     * Stops prefetching and lets the cells load their posters, e.g. when the MainActivity is
+     * paused
+     */
+    void pause() {
+        mPicasso.cancelTag(ImageLoader.PREFETCH_TAG);
+        mPicasso.resumeTag(ImageLoader.GRID_TAG);
+        clearPrefetchedRange();
+    }
+
+    @Override
+    public String toString() {
+        return "PosterPrefetcher[lookAhead=" + mLookAhead
+                + ", prefetched=" + mPrefetchCount + "]";
+    }
+
+    /**
+     * Prefetches the posters of the movies following the visible cells in the scroll direction
+     * which were not prefetched yet
+     */
+    private void prefetch(RecyclerView recyclerView) {
+
+        ArrayList<Movie> movies = mMovieAdapter.getMovieData();
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        if (movies == null || first == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        int start, end;
+        if (mDirection > 0) {
+            start = last + 1;
+            end = Math.min(movies.size() - 1, last + mLookAhead);
+        } else {
+            start = Math.max(0, first - mLookAhead);
+            end = first - 1;
+        }
+        for (int position = start; position <= end; position++) {
+            if (position >= mFirstPrefetched && position <= mLastPrefetched) {
+                continue;
+            }
+            // Requests the rendition and size which the cells bind, whether laid out or not
+            ImageLoader.loadGridPoster(recyclerView.getContext(),
+                    movies.get(position).getPosterPath())
+                    .priority(Picasso.Priority.LOW)
+                    .tag(ImageLoader.PREFETCH_TAG)
+                    .fetch();
+            mPrefetchCount++;
+        }
+
+        // Extends the prefetched range, or starts a new one if it does not touch the old one
+        if (start <= end) {
+            if (end + 1 < mFirstPrefetched || start - 1 > mLastPrefetched) {
+                mFirstPrefetched = start;
+                mLastPrefetched = end;
+            } else {
+                mFirstPrefetched = Math.min(mFirstPrefetched, start);
+                mLastPrefetched = Math.max(mLastPrefetched, end);
+            }
+        }
+    }
+
+    private void clearPrefetchedRange() {
+        mFirstPrefetched = Integer.MAX_VALUE;
+        mLastPrefetched = Integer.MIN_VALUE;
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.popularflicks;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.Loader;
+
+import com.example.android.popularflicks.utilites.CancellationToken;
+import com.example.android.popularflicks.utilites.TaskScheduler;
+
+/**
+ * Loader whose load runs as a task of the {@link TaskScheduler}, on the pool matching its
+ * work and with its priority, instead of on the executor shared by every AsyncTaskLoader
+ * <p>
+ * The load stops when the Loader is cancelled, e.g. when it is restarted after the sort order
+ * changed or destroyed because its activity finished: a queued load is dropped and a running
+ * load sees its token cancelled, closing its connection and stopping its parser.
+ */
+
+abstract class TaskLoader<D> extends Loader<D> {
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Pool and priority of the tasks of the Loader
+    private final int mPool;
+    private final int mPriority;
+
+    // Load queued or running, or null; only used on the main thread
+    private LoadJob mLoadJob;
+
+    /**
+     * @param context  context of the Loader
+     * @param pool     pool on which the loads run, one of the TaskScheduler.POOL constants
+     * @param priority priority of the loads, one of the TaskScheduler.PRIORITY constants
+     */
+    TaskLoader(Context context, int pool, int priority) {
+        super(context);
+        mPool = pool;
+        mPriority = priority;
+    }
+
+    /**
+     * Loads the data on a thread of the pool, stopping as soon as the token is cancelled
+     *
+     * @param token cancelled when the load is cancelled
+     * @return the loaded data, or null if the load failed or was cancelled
+     */
+    protected abstract D loadInBackground(CancellationToken token);
+
+    @Override
+    protected void onForceLoad() {
+        super.onForceLoad();
+
+        // The running load is superseded by the new one
+        cancelLoad();
+
+        LoadJob loadJob = new LoadJob();
+        mLoadJob = loadJob;
+        loadJob.mTask = TaskScheduler.getInstance().submit(mPool, mPriority, loadJob);
+    }
+
+    @Override
+    protected boolean onCancelLoad() {
+
+        LoadJob loadJob = mLoadJob;
+        if (loadJob == null) {
+            return false;
+        }
+        mLoadJob = null;
+
+        // A load which never ran reports its cancellation itself
+        if (loadJob.mTask.cancel()) {
+            loadJob.complete(null);
+        }
+        return true;
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        // Stops the load in the background when the Loader is destroyed
+        cancelLoad();
+    }
+
+    /**
+     * Delivers the result of a load which finished, or its cancellation if it was cancelled
+     * or superseded meanwhile
+     */
+    private void onLoadComplete(LoadJob loadJob, D data) {
+
+        if (loadJob != mLoadJob) {
+            rollbackContentChanged();
+            deliverCancellation();
+            return;
+        }
+        mLoadJob = null;
+        if (!isAbandoned()) {
+            commitContentChanged();
+            deliverResult(data);
+        }
+    }
+
+    /**
+     * A single load, whose result is handed to the main thread
+     */
+    private final class LoadJob implements TaskScheduler.Job {
+
+        // Task running the load; set on the main thread right after it is submitted
+        private TaskScheduler.Task mTask;
+
+        @Override
+        public void run(CancellationToken token) {
+
+            // The Loader hears back even if the load throws
+            D data = null;
+            try {
+                if (!token.isCancelled()) {
+                    data = loadInBackground(token);
+                }
+            } finally {
+                complete(data);
+            }
+        }
+
+        private void complete(final D data) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onLoadComplete(LoadJob.this, data);
+                }
+            });
+        }
+    }
+}
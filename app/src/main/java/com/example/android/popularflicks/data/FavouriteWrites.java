@@ -0,0 +1,101 @@
+package com.example.android.popularflicks.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Changes of the favourite movies queued by the {@link FavouritesWriter} and the batch of them
+ * being written, kept apart from its Handler and the database so that the coalescing can be
+ * tested on the JVM
+ * <p>
+ * Queuing the opposite of a queued change of a movie cancels both, as the database still holds
+ * the state preceding the queued change; queuing the same change again replaces its values.
+ * Only one batch is written at a time, so that the changes of a movie are written in order.
+ * Not thread safe; the writer only uses it on the main thread.
+ *
+ * @param <V> values of a movie to be inserted; a deletion is queued as null
+ */
+
+final class FavouriteWrites<V> {
+
+    // Queued changes by TMDB id, in the order they were first queued
+    private final Map<String, V> mPending = new LinkedHashMap<>();
+
+    // Changes of the batch being written, or null
+    private Map<String, V> mWriting;
+
+    // Number of changes queued, cancelled out and handed over to be written
+    private int mQueuedCount;
+    private int mCancelledCount;
+    private int mWrittenCount;
+
+    /**
+     * Queues a change of a movie
+     *
+     * @param tmdbId TMDB id of the movie
+     * @param values values of the movie to be inserted, or null to delete it
+     * @return true if the change starts a coalescing window, being the first one queued since
+     * the last batch was started
+     */
+    boolean enqueue(String tmdbId, V values) {
+
+        mQueuedCount++;
+        boolean hasPending = mPending.containsKey(tmdbId);
+        if (hasPending && (mPending.get(tmdbId) == null) != (values == null)) {
+            mPending.remove(tmdbId);
+            mCancelledCount += 2;
+            return false;
+        }
+        mPending.put(tmdbId, values);
+
+        // The window is not extended by further changes
+        return mPending.size() == 1 && !hasPending;
+    }
+
+    /**
+     * Hands the queued changes over to be written as a batch
+     *
+     * @return the changes of the batch, or null if none are queued or a batch is being written
+     */
+    Map<String, V> startBatch() {
+
+        if (mPending.isEmpty() || mWriting != null) {
+            return null;
+        }
+        mWriting = new LinkedHashMap<>(mPending);
+        mPending.clear();
+        mWrittenCount += mWriting.size();
+        return mWriting;
+    }
+
+    /**
+     * Marks the batch being written as written
+     *
+     * @return true if changes were queued while it was written
+     */
+    boolean finishBatch() {
+        mWriting = null;
+        return !mPending.isEmpty();
+    }
+
+    /**
+     * @param tmdbId TMDB id of the movie
+     * @return the values of the movie if its latest change which is queued or being written is
+     * an insert, or null
+     */
+    V getUnwrittenInsert(String tmdbId) {
+
+        if (mPending.containsKey(tmdbId)) {
+            return mPending.get(tmdbId);
+        }
+        return mWriting == null ? null : mWriting.get(tmdbId);
+    }
+
+    @Override
+    public String toString() {
+        return "queued=" + mQueuedCount
+                + ", cancelled=" + mCancelledCount
+                + ", written=" + mWrittenCount
+                + ", pending=" + mPending.size();
+    }
+}
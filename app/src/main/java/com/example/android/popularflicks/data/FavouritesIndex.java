@@ -0,0 +1,272 @@
+package com.example.android.popularflicks.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseBooleanArray;
+
+import com.example.android.popularflicks.data.MovieContract.MovieEntry;
+import com.example.android.popularflicks.utilites.CancellationToken;
+import com.example.android.popularflicks.utilites.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process wide index of the TMDB ids of the favourite movies, so that whether a movie is a
+ * favourite is a lookup in memory instead of a query of the database on the main thread
+ * <p>
+ * The index is loaded once on the disk pool and then kept in sync by the {@link MovieProvider},
+ * which adds and removes the ids of the movies it inserts and deletes. Listeners are told on the
+ * main thread when the index is loaded and which movies were added or removed, once per write
+ * which changed the index: the {@link FavouritesWriter} updates the index as soon as the user
+ * toggles a movie, so the provider committing that change later does not notify again.
+ */
+
+public final class FavouritesIndex {
+
+    /**
+     * Receives the changes of the index on the main thread
+     */
+    public interface Listener {
+
+        /**
+         * @param tmdbIds TMDB ids of the movies whose state was changed by a write, in the order
+         *                they were written, or null once the index is loaded
+         */
+        void onFavouritesChanged(Set<String> tmdbIds);
+    }
+
+    private static final FavouritesIndex sInstance = new FavouritesIndex();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // TMDB ids of the favourite movies; guarded by this
+    private final SparseBooleanArray mFavouriteIds = new SparseBooleanArray();
+
+    // Changes made while the index is loading, applied again over the loaded ids as the load may
+    // have read the database before or after them; guarded by this
+    private final SparseBooleanArray mChangesDuringLoad = new SparseBooleanArray();
+
+    // Whether the load was started and whether it finished; guarded by this
+    private boolean mLoadStarted;
+    private boolean mLoaded;
+
+    // Only used on the main thread
+    private final ArrayList<Listener> mListeners = new ArrayList<>();
+
+    /**
+     * Creates an index apart from the shared one, e.g. for a provider under test which must not
+     * change the favourites seen by the app
+     */
+    FavouritesIndex() {
+    }
+
+    /**
+     * @return the index shared by the whole app
+     */
+    public static FavouritesIndex getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Loads the ids of the favourite movies on the disk pool, unless they are already loaded
+     *
+     * @param context used to query the favourites through their Content Provider
+     */
+    public void load(Context context) {
+
+        synchronized (this) {
+            if (mLoadStarted) {
+                return;
+            }
+            mLoadStarted = true;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        TaskScheduler.getInstance().submit(TaskScheduler.POOL_DISK,
+                TaskScheduler.PRIORITY_VISIBLE,
+                new TaskScheduler.Job() {
+                    @Override
+                    public void run(CancellationToken token) {
+                        onLoaded(queryFavouriteIds(appContext));
+                    }
+                });
+    }
+
+    /**
+     * @return true once the index is loaded; until then no movie is reported as a favourite
+     */
+    public synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * @param tmdbId TMDB id of the movie
+     * @return true if the movie is a favourite
+     */
+    public synchronized boolean contains(String tmdbId) {
+        int key = toKey(tmdbId);
+        return key != -1 && mFavouriteIds.get(key);
+    }
+
+    /**
+     * Registers a listener; must be called on the main thread
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener; must be called on the main thread
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Adds a movie inserted in the favourites database
+     */
+    void add(String tmdbId) {
+        update(tmdbId, true);
+    }
+
+    /**
+     * Removes a movie deleted from the favourites database
+     */
+    void remove(String tmdbId) {
+        update(tmdbId, false);
+    }
+
+    /**
+     * Adds and removes the movies written by a bulk write, notifying the listeners once
+     *
+     * @param changes whether each movie is a favourite after the write, by TMDB id
+     */
+    void update(Map<String, Boolean> changes) {
+
+        LinkedHashSet<String> changedIds = new LinkedHashSet<>();
+        synchronized (this) {
+            for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+                if (put(toKey(change.getKey()), change.getValue())) {
+                    changedIds.add(change.getKey());
+                }
+            }
+        }
+        if (!changedIds.isEmpty()) {
+            notifyListeners(Collections.unmodifiableSet(changedIds));
+        }
+    }
+
+    private void update(String tmdbId, boolean favourite) {
+
+        int key = toKey(tmdbId);
+        if (key == -1) {
+            return;
+        }
+        boolean changed;
+        synchronized (this) {
+            changed = put(key, favourite);
+        }
+        if (changed) {
+            notifyListeners(Collections.singleton(tmdbId));
+        }
+    }
+
+    // Must be called holding the lock; returns whether the state of the movie changed
+    private boolean put(int key, boolean favourite) {
+
+        if (key == -1) {
+            return false;
+        }
+        if (mLoadStarted && !mLoaded) {
+            mChangesDuringLoad.put(key, favourite);
+        }
+        if (mFavouriteIds.get(key) == favourite) {
+            return false;
+        }
+        if (favourite) {
+            mFavouriteIds.put(key, true);
+        } else {
+            mFavouriteIds.delete(key);
+        }
+        return true;
+    }
+
+    private void onLoaded(ArrayList<String> tmdbIds) {
+
+        synchronized (this) {
+            for (String tmdbId : tmdbIds) {
+                int key = toKey(tmdbId);
+                if (key != -1) {
+                    mFavouriteIds.put(key, true);
+                }
+            }
+            for (int i = 0; i < mChangesDuringLoad.size(); i++) {
+                if (!mChangesDuringLoad.valueAt(i)) {
+                    mFavouriteIds.delete(mChangesDuringLoad.keyAt(i));
+                }
+            }
+            mChangesDuringLoad.clear();
+            mLoaded = true;
+        }
+        notifyListeners(null);
+    }
+
+    private void notifyListeners(final Set<String> tmdbIds) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Copied, as listeners may unregister themselves
+                for (Listener listener : new ArrayList<>(mListeners)) {
+                    listener.onFavouritesChanged(tmdbIds);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the TMDB ids of the favourite movies, or those read before the query failed
+     */
+    private static ArrayList<String> queryFavouriteIds(Context context) {
+
+        ArrayList<String> tmdbIds = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(MovieEntry.CONTENT_URI,
+                    new String[]{MovieEntry.COLUMN_TMDB_ID},
+                    null,
+                    null,
+                    null);
+            while (cursor != null && cursor.moveToNext()) {
+                tmdbIds.add(cursor.getString(0));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return tmdbIds;
+    }
+
+    /**
+     * @return the TMDB id as the key of the index, or -1 if it is not a number
+     */
+    private static int toKey(String tmdbId) {
+
+        if (tmdbId == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(tmdbId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.android.popularflicks.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.popularflicks.data.MovieContract.MovieEntry;
+import com.example.android.popularflicks.utilites.CancellationToken;
+import com.example.android.popularflicks.utilites.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Queue of the favourite movies to be inserted in or deleted from the database, written in the
+ * background instead of on the main thread
+ * <p>
+ * A change is applied to the {@link FavouritesIndex} at once, so that the screens display it
+ * straight away, and written once the coalescing window following the first queued change ends.
+ * Adding and removing the same movie within the window cancel out and write nothing. The
+ * remaining changes are written as a single batch, in one transaction and with one change
+ * notification; if the batch fails, the index is reverted. A batch is only written once the
+ * previous one is written, so that the changes of a movie are written in order.
+ */
+
+public final class FavouritesWriter {
+
+    // Time for which changes are queued before being written
+    private static final long COALESCING_WINDOW_MILLIS = 300;
+
+    private static final FavouritesWriter sInstance = new FavouritesWriter();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Queued changes and the batch being written; only used on the main thread
+    private final FavouriteWrites<ContentValues> mWrites = new FavouriteWrites<>();
+
+    // Context used to write the batch, set by the first queued change
+    private Context mAppContext;
+
+    /**
+     * @return the queue shared by the whole app
+     */
+    public static FavouritesWriter getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Queues a movie to be added to the favourites; must be called on the main thread
+     *
+     * @param context used to write the movie through the Content Provider
+     * @param values  columns of the movie, including its TMDB id
+     */
+    public void insert(Context context, ContentValues values) {
+        enqueue(context, values.getAsString(MovieEntry.COLUMN_TMDB_ID), values);
+    }
+
+    /**
+     * Queues a movie to be removed from the favourites; must be called on the main thread
+     *
+     * @param context used to write the change through the Content Provider
+     * @param tmdbId  TMDB id of the movie
+     */
+    public void delete(Context context, String tmdbId) {
+        enqueue(context, tmdbId, null);
+    }
+
+    /**
+     * Returns the values of a movie whose insert is queued or being written, so that the screens
+     * can display it before the database holds it; must be called on the main thread
+     *
+     * @param tmdbId TMDB id of the movie
+     * @return the values of the movie, or null if its latest unwritten change is not an insert
+     */
+    public ContentValues getUnwrittenInsert(String tmdbId) {
+        return mWrites.getUnwrittenInsert(tmdbId);
+    }
+
+    @Override
+    public String toString() {
+        return "FavouritesWriter[" + mWrites + "]";
+    }
+
+    private void enqueue(Context context, String tmdbId, ContentValues values) {
+
+        mAppContext = context.getApplicationContext();
+
+        // The index already holds the state the user sees
+        if (values != null) {
+            FavouritesIndex.getInstance().add(tmdbId);
+        } else {
+            FavouritesIndex.getInstance().remove(tmdbId);
+        }
+
+        // The window starts with the first queued change
+        if (mWrites.enqueue(tmdbId, values)) {
+            mMainHandler.removeCallbacks(mFlush);
+            mMainHandler.postDelayed(mFlush, COALESCING_WINDOW_MILLIS);
+        }
+    }
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            // The changes are written once the batch being written is written
+            final Map<String, ContentValues> writes = mWrites.startBatch();
+            if (writes == null) {
+                return;
+            }
+
+            final Context context = mAppContext;
+            TaskScheduler.getInstance().submit(TaskScheduler.POOL_DISK,
+                    TaskScheduler.PRIORITY_BACKGROUND,
+                    new TaskScheduler.Job() {
+                        @Override
+                        public void run(CancellationToken token) {
+                            try {
+                                write(context, writes);
+                            } finally {
+                                mMainHandler.post(mOnWritten);
+                            }
+                        }
+                    });
+        }
+    };
+
+    private final Runnable mOnWritten = new Runnable() {
+        @Override
+        public void run() {
+            // Changes queued while the batch was written are not delayed any further
+            if (mWrites.finishBatch()) {
+                mMainHandler.removeCallbacks(mFlush);
+                mFlush.run();
+            }
+        }
+    };
+
+    /**
+     * Writes the changes as a single batch, reverting the index if it fails
+     */
+    private static void write(Context context, Map<String, ContentValues> writes) {
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(writes.size());
+        for (Map.Entry<String, ContentValues> write : writes.entrySet()) {
+            if (write.getValue() != null) {
+                operations.add(ContentProviderOperation.newInsert(MovieEntry.CONTENT_URI)
+                        .withValues(write.getValue())
+                        .build());
+            } else {
+                operations.add(ContentProviderOperation
+                        .newDelete(MovieEntry.buildMovieUri(write.getKey()))
+                        .build());
+            }
+        }
+
+        try {
+            context.getContentResolver().applyBatch(MovieContract.AUTHORITY, operations);
+        } catch (Exception e) {
+            e.printStackTrace();
+            for (Map.Entry<String, ContentValues> write : writes.entrySet()) {
+                if (write.getValue() != null) {
+                    FavouritesIndex.getInstance().remove(write.getKey());
+                } else {
+                    FavouritesIndex.getInstance().add(write.getKey());
+                }
+            }
+        }
+    }
+}
@@ -32,6 +32,16 @@ public class MovieContract {
         public static final String COLUMN_RELEASE_DATE = "release_date";
         public static final String COLUMN_TMDB_ID = "id";
 
+        /**
+         * Builds the URI of a single movie, which is also the URI notified when the movie is
+         * inserted or deleted
+         *
+         * @param tmdbId TMDB id of the movie
+         * @return the URI of the movie
+         */
+        public static Uri buildMovieUri(String tmdbId) {
+            return CONTENT_URI.buildUpon().appendPath(tmdbId).build();
+        }
     }
 
 
@@ -1,13 +1,25 @@
 package com.example.android.popularflicks.data;
 
 import android.content.Context;
+import android.content.res.Resources;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.popularflicks.R;
 import com.example.android.popularflicks.data.MovieContract.MovieEntry;
 
 /**
  * Helps in the opening of a SQLite Database
+ * <p>
+ * The database is upgraded one version at a time, each step migrating the favourites of the
+ * previous version instead of dropping them.
+ * <p>
+ * The database uses write-ahead logging, so that reads run on their own connections while a
+ * favourite is written instead of waiting for the write. Its page size, cache size and
+ * synchronous mode are read from the resources; the cache size and synchronous mode only apply
+ * to the connection used for writes. The page size is set before the database is switched to
+ * write-ahead logging, as switching writes the header of a new database and fixes its page size.
  */
 class MovieDbHelper extends SQLiteOpenHelper {
 
@@ -15,24 +27,135 @@ class MovieDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "movies.db";
 
     // Version of the database
-    private static final int VERSION = 1;
+    // 1: every column stored as TEXT
+    // 2: rating stored as REAL and TMDB id as INTEGER, with a named unique index on the TMDB id
+    private static final int VERSION = 2;
+
+    // Unique index looking up the movies by TMDB id, used by the queries and deletes of a movie
+    // and by the upserts
+    private static final String INDEX_TMDB_ID = MovieEntry.TABLE_NAME + "_tmdb_id_index";
+
+    // Connection settings read from the resources
+    private final int mPageSizeBytes;
+    private final int mCacheSizeKb;
+    private final int mSynchronousMode;
+
+    // Whether the database uses write-ahead logging rather than a rollback journal
+    private final boolean mWriteAheadLogging;
 
     // Constructor
     MovieDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * @param databaseName name of the database file, e.g. a copy used by a test
+     */
+    MovieDbHelper(Context context, String databaseName) {
+        this(context, databaseName, true);
+    }
+
+    /**
+     * @param databaseName      name of the database file
+     * @param writeAheadLogging false to keep the rollback journal, e.g. to compare with it
+     */
+    MovieDbHelper(Context context, String databaseName, boolean writeAheadLogging) {
+        super(context, databaseName, null, VERSION);
+
+        Resources resources = context.getResources();
+        mPageSizeBytes = resources.getInteger(R.integer.db_page_size_bytes);
+        mCacheSizeKb = resources.getInteger(R.integer.db_cache_size_kb);
+        mSynchronousMode = resources.getInteger(R.integer.db_synchronous_mode);
+        mWriteAheadLogging = writeAheadLogging;
+    }
+
+    /**
+     * @return true if the database uses write-ahead logging
+     */
+    boolean isWriteAheadLogging() {
+        return mWriteAheadLogging;
+    }
+
+    /**
+     * Applies the connection settings and then switches to write-ahead logging, before the
+     * database is created or upgraded; only called from API 16
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        configure(db);
+        if (mWriteAheadLogging) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // Before API 16 the settings can only be applied once the database is open, and created,
+        // so the page size only applies to the databases created from API 16
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            configure(db);
+            if (mWriteAheadLogging) {
+                db.enableWriteAheadLogging();
+            }
+        }
+    }
+
+    private void configure(SQLiteDatabase db) {
+
+        // Only takes effect while the database file is empty, i.e. before it is created
+        db.execSQL("PRAGMA page_size = " + mPageSizeBytes);
+
+        // A negative size is in kilobytes from SQLite 3.7.10, shipped from API 16; older versions
+        // take a number of pages of the actual page size of the database
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.execSQL("PRAGMA cache_size = -" + mCacheSizeKb);
+        } else {
+            db.execSQL("PRAGMA cache_size = "
+                    + Math.max(1, mCacheSizeKb * 1024L / db.getPageSize()));
+        }
+        db.execSQL("PRAGMA synchronous = " + mSynchronousMode);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createMoviesTable(db, MovieEntry.TABLE_NAME);
+        createIndices(db);
+    }
+
+    /**
+     * Migrates the database one version at a time; runs in the transaction of the upgrade, so
+     * an upgrade which fails leaves the database at its old version
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+        for (int version = oldVersion; version < newVersion; version++) {
+            switch (version) {
+                case 1:
+                    migrateToVersion2(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration from version " + version);
+            }
+        }
+    }
+
+    /**
+     * Creates the table of the movies in the current schema
+     *
+     * @param tableName name of the table, which differs while a migration copies the movies
+     */
+    private static void createMoviesTable(SQLiteDatabase db, String tableName) {
 
         // SQL command String to create database table with the given parameters
-        final String CREATE_TABLE = "CREATE TABLE " + MovieEntry.TABLE_NAME + " ("+
+        final String CREATE_TABLE = "CREATE TABLE " + tableName + " (" +
                 MovieEntry._ID + " INTEGER PRIMARY KEY NOT NULL, " +
                 MovieEntry.COLUMN_TITLE + " TEXT, " +
-
                 MovieEntry.COLUMN_POSTER_PATH + " TEXT, " +
-                MovieEntry.COLUMN_RATING + " TEXT, " +
-                MovieEntry.COLUMN_TMDB_ID + " TEXT UNIQUE, " +
+                MovieEntry.COLUMN_RATING + " REAL, " +
+                MovieEntry.COLUMN_TMDB_ID + " INTEGER NOT NULL, " +
                 MovieEntry.COLUMN_RELEASE_DATE + " TEXT, " +
                 MovieEntry.COLUMN_SYNOPSIS + " TEXT);";
 
@@ -40,11 +163,45 @@ class MovieDbHelper extends SQLiteOpenHelper {
         db.execSQL(CREATE_TABLE);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    private static void createIndices(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_TMDB_ID + " ON " + MovieEntry.TABLE_NAME
+                + " (" + MovieEntry.COLUMN_TMDB_ID + ");");
+    }
+
+    /**
+     * Converts the rating to REAL and the TMDB id to INTEGER, keeping the row ids so that the
+     * favourites keep their order; movies without a numeric TMDB id cannot be stored and are
+     * dropped
+     */
+    private static void migrateToVersion2(SQLiteDatabase db) {
+
+        final String newTable = MovieEntry.TABLE_NAME + "_v2";
+        createMoviesTable(db, newTable);
+
+        db.execSQL("INSERT INTO " + newTable + " (" +
+                MovieEntry._ID + ", " +
+                MovieEntry.COLUMN_TITLE + ", " +
+                MovieEntry.COLUMN_POSTER_PATH + ", " +
+                MovieEntry.COLUMN_RATING + ", " +
+                MovieEntry.COLUMN_TMDB_ID + ", " +
+                MovieEntry.COLUMN_RELEASE_DATE + ", " +
+                MovieEntry.COLUMN_SYNOPSIS + ") SELECT " +
+                MovieEntry._ID + ", " +
+                MovieEntry.COLUMN_TITLE + ", " +
+                MovieEntry.COLUMN_POSTER_PATH + ", " +
+                "CAST(NULLIF(" + MovieEntry.COLUMN_RATING + ", '') AS REAL), " +
+                "CAST(" + MovieEntry.COLUMN_TMDB_ID + " AS INTEGER), " +
+                MovieEntry.COLUMN_RELEASE_DATE + ", " +
+                MovieEntry.COLUMN_SYNOPSIS +
+                " FROM " + MovieEntry.TABLE_NAME +
+                " WHERE " + MovieEntry.COLUMN_TMDB_ID + " GLOB '[0-9]*'" +
+                " ORDER BY " + MovieEntry._ID + ";");
+
+        db.execSQL("DROP TABLE " + MovieEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + MovieEntry.TABLE_NAME + ";");
 
-        // Drop and recreate table if it exists
-        db.execSQL("DROP TABLE IF EXISTS " + MovieEntry.TABLE_NAME + " ;");
-        onCreate(db);
+        // The index is created once the movies are copied, which is faster than updating it
+        // for every copied movie
+        createIndices(db);
     }
 }
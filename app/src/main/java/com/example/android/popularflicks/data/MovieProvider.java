@@ -2,8 +2,11 @@ package com.example.android.popularflicks.data;
 
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -14,8 +17,24 @@ import android.support.annotation.Nullable;
 
 import com.example.android.popularflicks.data.MovieContract.MovieEntry;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Content Provider for the favourite movies database
+ * <p>
+ * Single movies are addressed by their TMDB id as movies/&lt;id&gt;. The screens learn about
+ * written movies from the {@link FavouritesIndex}, which the provider keeps in sync; the URI of
+ * the table is only notified for the cursors returned by query, which are notified of the changes
+ * of their descendants too.
+ * <p>
+ * Inserts upsert on the TMDB id, updating the movie in place if it is already stored. A bulk
+ * insert or a batch of operations is applied in a single transaction, through statements compiled
+ * once, and notifies once.
+ * <p>
+ * Writes run in non-exclusive transactions, so that with the write-ahead log of the database the
+ * queries keep being served while a movie is written.
  */
 public class MovieProvider extends ContentProvider {
 
@@ -42,9 +61,31 @@ public class MovieProvider extends ContentProvider {
     // MovieDbHelper object to open a database
     private MovieDbHelper mDbHelper;
 
+    // Index kept in sync with the favourites written
+    private final FavouritesIndex mFavouritesIndex;
+
+    // Batch being applied on the calling thread; null outside of a batch
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    // Checkpoints the write-ahead log after writes, once the main thread is idle
+    private WalCheckpointer mCheckpointer;
+
+    public MovieProvider() {
+        this(FavouritesIndex.getInstance());
+    }
+
+    /**
+     * @param favouritesIndex index kept in sync with the favourites written, e.g. one apart from
+     *                        the shared index for a provider under test
+     */
+    MovieProvider(FavouritesIndex favouritesIndex) {
+        mFavouritesIndex = favouritesIndex;
+    }
+
     @Override
     public boolean onCreate() {
         mDbHelper = new MovieDbHelper(getContext());
+        mCheckpointer = new WalCheckpointer(mDbHelper);
         return true;
     }
 
@@ -60,6 +101,9 @@ public class MovieProvider extends ContentProvider {
         Cursor retCursor;
         switch (match) {
             case MOVIE_WITH_ID:
+                selection = MovieEntry.COLUMN_TMDB_ID + "=?";
+                selectionArgs = new String[]{uri.getLastPathSegment()};
+                // Falls through to query the movie
             case MOVIES:
                 retCursor = mDb.query(MovieEntry.TABLE_NAME,
                         projection,
@@ -95,20 +139,43 @@ public class MovieProvider extends ContentProvider {
         switch (match) {
             case MOVIES:
 
-                long id = mDb.insert(MovieEntry.TABLE_NAME,
-                        null,
-                        values);
-                if (id > 0) {
-                    returnUri = ContentUris.withAppendedId(MovieContract.MovieEntry.CONTENT_URI,
-                            id);
+                if (values == null) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+
+                // A batch compiles the statements once for all of its inserts, and already runs
+                // in a transaction
+                Batch batch = mBatch.get();
+                long id;
+                if (batch != null) {
+                    id = batch.getUpserter(mDb).upsert(values);
                 } else {
+                    // The update and the insert of the upsert are written together or not at all
+                    MovieUpserter upserter = new MovieUpserter(mDb);
+                    mDb.beginTransactionNonExclusive();
+                    try {
+                        id = upserter.upsert(values);
+                        if (id != -1) {
+                            mDb.setTransactionSuccessful();
+                        }
+                    } finally {
+                        mDb.endTransaction();
+                        upserter.close();
+                    }
+                }
+                if (id == -1) {
                     throw new SQLException("Failed to insert row into " + uri);
                 }
+                String tmdbId = values.getAsString(MovieEntry.COLUMN_TMDB_ID);
+                returnUri = tmdbId == null
+                        ? ContentUris.withAppendedId(MovieEntry.CONTENT_URI, id)
+                        : MovieEntry.buildMovieUri(tmdbId);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+
+        onMovieInserted(returnUri);
 
         return returnUri;
     }
@@ -120,20 +187,186 @@ public class MovieProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
 
         int rowsDeleted;
+        ArrayList<String> deletedIds;
         switch (match) {
             case MOVIE_WITH_ID:
+                selection = MovieEntry.COLUMN_TMDB_ID + "=?";
+                selectionArgs = new String[]{uri.getLastPathSegment()};
+                // Falls through to delete the movie
             case MOVIES:
-                rowsDeleted = mDb.delete(MovieEntry.TABLE_NAME, selection, selectionArgs);
+                // The deleted movies are read in the same transaction to notify each of them
+                mDb.beginTransactionNonExclusive();
+                try {
+                    deletedIds = queryTmdbIds(mDb, selection, selectionArgs);
+                    rowsDeleted = mDb.delete(MovieEntry.TABLE_NAME, selection, selectionArgs);
+                    mDb.setTransactionSuccessful();
+                } finally {
+                    mDb.endTransaction();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown URI " + uri);
         }
         if (rowsDeleted > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            // Deleting several movies notifies once, like a batch
+            Batch batch = mBatch.get();
+            Batch changes = batch != null ? batch : new Batch();
+            for (String tmdbId : deletedIds) {
+                changes.mChanges.put(tmdbId, false);
+            }
+            if (batch == null) {
+                onBatchCommitted(changes);
+            }
         }
         return rowsDeleted;
     }
 
+    /**
+     * Upserts the movies in a single transaction through statements compiled once, and notifies
+     * once the transaction is committed
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+
+        if (sUriMatcher.match(uri) != MOVIES) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        final SQLiteDatabase mDb = mDbHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        mDb.beginTransactionNonExclusive();
+        try {
+            MovieUpserter upserter = batch.getUpserter(mDb);
+            for (ContentValues movie : values) {
+                if (upserter.upsert(movie) == -1) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+                batch.mChanges.put(movie.getAsString(MovieEntry.COLUMN_TMDB_ID), true);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            batch.close();
+            mDb.endTransaction();
+            mBatch.remove();
+        }
+
+        onBatchCommitted(batch);
+        return values.length;
+    }
+
+    /**
+     * Applies the operations in a single transaction, so that either all or none of them are
+     * written, and notifies the changed movies once the transaction is committed
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        final SQLiteDatabase mDb = mDbHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        ContentProviderResult[] results;
+
+        mBatch.set(batch);
+        mDb.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            mDb.setTransactionSuccessful();
+        } finally {
+            batch.close();
+            mDb.endTransaction();
+            mBatch.remove();
+        }
+
+        onBatchCommitted(batch);
+        return results;
+    }
+
+    /**
+     * Updates the favourites index and notifies the table after a movie was inserted, or defers
+     * both until the end of the batch being applied
+     *
+     * @param movieUri URI of the movie
+     */
+    private void onMovieInserted(Uri movieUri) {
+
+        String tmdbId = movieUri.getLastPathSegment();
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mChanges.put(tmdbId, true);
+            return;
+        }
+        mFavouritesIndex.add(tmdbId);
+        getContext().getContentResolver().notifyChange(MovieEntry.CONTENT_URI, null);
+        mCheckpointer.schedule();
+    }
+
+    /**
+     * Updates the favourites index with the movies changed by a committed batch or delete, and
+     * notifies the table once
+     */
+    private void onBatchCommitted(Batch batch) {
+
+        Map<String, Boolean> changes = batch.mChanges;
+        mFavouritesIndex.update(changes);
+        mCheckpointer.schedule();
+        if (!changes.isEmpty()) {
+            getContext().getContentResolver().notifyChange(MovieEntry.CONTENT_URI, null);
+        }
+    }
+
+    /**
+     * State of a bulk insert or of a batch of operations being applied
+     */
+    private static final class Batch {
+
+        // Movies changed by the batch, and whether they are favourites afterwards
+        final Map<String, Boolean> mChanges = new LinkedHashMap<>();
+
+        // Compiled when the batch inserts its first movie
+        private MovieUpserter mUpserter;
+
+        MovieUpserter getUpserter(SQLiteDatabase db) {
+            if (mUpserter == null) {
+                mUpserter = new MovieUpserter(db);
+            }
+            return mUpserter;
+        }
+
+        void close() {
+            if (mUpserter != null) {
+                mUpserter.close();
+            }
+        }
+    }
+
+    /**
+     * @return the TMDB ids of the movies matching the selection
+     */
+    private static ArrayList<String> queryTmdbIds(SQLiteDatabase db,
+                                                  String selection,
+                                                  String[] selectionArgs) {
+
+        ArrayList<String> tmdbIds = new ArrayList<>();
+        Cursor cursor = db.query(MovieEntry.TABLE_NAME,
+                new String[]{MovieEntry.COLUMN_TMDB_ID},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                tmdbIds.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tmdbIds;
+    }
+
     // Update operation is not required and is not implemented
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
@@ -0,0 +1,120 @@
+package com.example.android.popularflicks.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.popularflicks.data.MovieContract.MovieEntry;
+
+/**
+ * Inserts movies, or updates the movie with the same TMDB id, through statements compiled once
+ * and executed for every movie of a bulk write
+ * <p>
+ * The movie is updated in place rather than replaced, so that it keeps its row id and its
+ * position in the favourites, which are listed in the order they were inserted. Upserting with
+ * ON CONFLICT DO UPDATE is not supported by the SQLite versions of older devices.
+ */
+
+final class MovieUpserter {
+
+    // Value returned by upsert when an existing movie was updated, as row ids start from 1
+    static final long UPDATED = 0;
+
+    // Columns written, in the order of the statement parameters; the TMDB id is last
+    private static final String[] COLUMNS = {
+            MovieEntry.COLUMN_TITLE,
+            MovieEntry.COLUMN_POSTER_PATH,
+            MovieEntry.COLUMN_RATING,
+            MovieEntry.COLUMN_SYNOPSIS,
+            MovieEntry.COLUMN_RELEASE_DATE,
+            MovieEntry.COLUMN_TMDB_ID};
+
+    private final SQLiteStatement mUpdateStatement;
+    private final SQLiteStatement mInsertStatement;
+
+    /**
+     * Compiles the statements; the upserts should run in a transaction of the database
+     */
+    MovieUpserter(SQLiteDatabase db) {
+
+        StringBuilder update = new StringBuilder("UPDATE ")
+                .append(MovieEntry.TABLE_NAME).append(" SET ");
+        StringBuilder insert = new StringBuilder("INSERT INTO ")
+                .append(MovieEntry.TABLE_NAME).append(" (");
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i < COLUMNS.length - 1) {
+                update.append(i == 0 ? "" : ", ").append(COLUMNS[i]).append("=?");
+            }
+            insert.append(i == 0 ? "" : ", ").append(COLUMNS[i]);
+            parameters.append(i == 0 ? "?" : ", ?");
+        }
+        update.append(" WHERE ").append(MovieEntry.COLUMN_TMDB_ID).append("=?");
+        insert.append(") VALUES (").append(parameters).append(')');
+
+        mUpdateStatement = db.compileStatement(update.toString());
+        mInsertStatement = db.compileStatement(insert.toString());
+    }
+
+    /**
+     * Updates the movie with the TMDB id of the values, or inserts it if there is none
+     *
+     * @param values columns of the movie; columns missing from the values are written as null
+     * @return the row id of the inserted movie, {@link #UPDATED} if it already existed, or -1
+     * if it could not be inserted
+     */
+    long upsert(ContentValues values) {
+
+        // Both statements take the columns in the same order, the TMDB id being last
+        bind(mUpdateStatement, values);
+        if (mUpdateStatement.executeUpdateDelete() > 0) {
+            return UPDATED;
+        }
+        bind(mInsertStatement, values);
+        return mInsertStatement.executeInsert();
+    }
+
+    /**
+     * Releases the compiled statements
+     */
+    void close() {
+        mUpdateStatement.close();
+        mInsertStatement.close();
+    }
+
+    private static void bind(SQLiteStatement statement, ContentValues values) {
+
+        statement.clearBindings();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            Object value = values.get(COLUMNS[i]);
+            if (value == null) {
+                statement.bindNull(i + 1);
+            } else if (COLUMNS[i].equals(MovieEntry.COLUMN_RATING)) {
+                bindNumber(statement, i + 1, value.toString(), false);
+            } else if (COLUMNS[i].equals(MovieEntry.COLUMN_TMDB_ID)) {
+                bindNumber(statement, i + 1, value.toString(), true);
+            } else {
+                statement.bindString(i + 1, value.toString());
+            }
+        }
+    }
+
+    /**
+     * Binds a value of the REAL rating or INTEGER TMDB id columns as a number, so that SQLite does
+     * not convert it; a value which is not a number is bound as it is
+     */
+    private static void bindNumber(SQLiteStatement statement,
+                                   int index,
+                                   String value,
+                                   boolean integer) {
+        try {
+            if (integer) {
+                statement.bindLong(index, Long.parseLong(value));
+            } else {
+                statement.bindDouble(index, Double.parseDouble(value));
+            }
+        } catch (NumberFormatException e) {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.android.popularflicks.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import com.example.android.popularflicks.utilites.CancellationToken;
+import com.example.android.popularflicks.utilites.TaskScheduler;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checkpoints the write-ahead log of the favourites database once the main thread is idle after
+ * a write, instead of leaving it to the commit which crosses the automatic checkpoint threshold
+ * <p>
+ * Keeping the log short keeps the reads fast, as they look up the pages of the log before those
+ * of the database. The checkpoint runs on the disk pool at background priority and is passive,
+ * so it neither blocks nor waits for the reads and writes running meanwhile.
+ */
+
+final class WalCheckpointer implements MessageQueue.IdleHandler {
+
+    private final MovieDbHelper mDbHelper;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Whether a checkpoint is scheduled and has not started yet
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    // Number of checkpoints run, and pages of the log when the last one ran and copied by it
+    private volatile int mCheckpointCount;
+    private volatile int mLastLogPages;
+    private volatile int mLastCheckpointedPages;
+
+    WalCheckpointer(MovieDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Schedules a checkpoint for the next time the main thread is idle, unless one is already
+     * scheduled; may be called on any thread
+     */
+    void schedule() {
+
+        if (!mDbHelper.isWriteAheadLogging() || !mScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Looper.myQueue().addIdleHandler(WalCheckpointer.this);
+            }
+        });
+    }
+
+    /**
+     * Hands the checkpoint to the disk pool once the main thread is idle
+     *
+     * @return false, as the idle handler is only run once per scheduled checkpoint
+     */
+    @Override
+    public boolean queueIdle() {
+
+        TaskScheduler.getInstance().submit(TaskScheduler.POOL_DISK,
+                TaskScheduler.PRIORITY_BACKGROUND,
+                new TaskScheduler.Job() {
+                    @Override
+                    public void run(CancellationToken token) {
+                        checkpoint();
+                    }
+                });
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "WalCheckpointer[checkpoints=" + mCheckpointCount
+                + ", lastLogPages=" + mLastLogPages
+                + ", lastCheckpointedPages=" + mLastCheckpointedPages + "]";
+    }
+
+    private void checkpoint() {
+
+        // Writes committed from now on schedule another checkpoint
+        mScheduled.set(false);
+
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+            // Passive by default, and the form supported by the SQLite of older devices
+            cursor = db.rawQuery("PRAGMA wal_checkpoint", null);
+            if (cursor.moveToFirst() && cursor.getColumnCount() >= 3) {
+                mLastLogPages = cursor.getInt(1);
+                mLastCheckpointedPages = cursor.getInt(2);
+            }
+            mCheckpointCount++;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
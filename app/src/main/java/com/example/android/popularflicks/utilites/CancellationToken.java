@@ -0,0 +1,150 @@
+package com.example.android.popularflicks.utilites;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signals that the result of a request is not needed anymore
+ * <p>
+ * Cancellation is cooperative: the network and parsing stages check the token between reads
+ * and stop by throwing a {@link RequestCancelledException}, and listeners registered on the
+ * token close the connection so that a blocked read returns at once.
+ * <p>
+ * The listeners run on a thread of their own rather than on the thread which cancels the token,
+ * which is often the main thread, so that closing a connection never blocks it.
+ */
+
+public final class CancellationToken {
+
+    // Time after which the idle listener thread ends
+    private static final long LISTENER_KEEP_ALIVE_SECONDS = 10;
+
+    // Runs the listeners of every token in the order the tokens were cancelled; separate from
+    // the network pool, whose threads may all be blocked in the reads the listeners abort
+    private static final Executor LISTENER_EXECUTOR = createListenerExecutor();
+
+    private boolean mCancelled;
+
+    // Run once when the token is cancelled
+    private final ArrayList<Runnable> mListeners = new ArrayList<>();
+
+    /**
+     * Cancels the token and hands its listeners to the listener thread; does nothing if it was
+     * already cancelled
+     */
+    public void cancel() {
+
+        ArrayList<Runnable> listeners;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+            notifyAll();
+        }
+        if (!listeners.isEmpty()) {
+            runListeners(listeners);
+        }
+    }
+
+    /**
+     * @return true if the token was cancelled
+     */
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @throws RequestCancelledException if the token was cancelled
+     */
+    public void throwIfCancelled() throws RequestCancelledException {
+        if (isCancelled()) {
+            throw new RequestCancelledException();
+        }
+    }
+
+    /**
+     * Registers a listener to be run when the token is cancelled; the listener is run at once
+     * if the token was already cancelled
+     *
+     * @param listener run on the listener thread, never on the thread which cancels the token
+     */
+    public void register(Runnable listener) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        ArrayList<Runnable> listeners = new ArrayList<>(1);
+        listeners.add(listener);
+        runListeners(listeners);
+    }
+
+    /**
+     * Removes a listener which is not needed anymore
+     */
+    public synchronized void unregister(Runnable listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Waits for the given time unless the token is cancelled first
+     *
+     * @param millis the time to wait in milliseconds
+     * @throws RequestCancelledException if the token is cancelled before the time has passed
+     */
+    public synchronized void sleep(long millis) throws RequestCancelledException {
+
+        long deadline = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while (!mCancelled && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RequestCancelledException();
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        throwIfCancelled();
+    }
+
+    private static void runListeners(final ArrayList<Runnable> listeners) {
+        LISTENER_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Runnable listener : listeners) {
+                    try {
+                        listener.run();
+                    } catch (RuntimeException e) {
+                        // A failing listener must not keep the others from running
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+    }
+
+    private static Executor createListenerExecutor() {
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                LISTENER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "CancellationToken-listeners");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.android.popularflicks.utilites;
+
+/**
+ * Stops requests to the TMDB API while it is unhealthy
+ * <p>
+ * After a number of consecutive failures the breaker opens and requests fail fast, falling back
+ * to cached data, instead of waiting on a server which cannot answer them. Once the open
+ * duration has passed the breaker is half open: the next request is let through and closes
+ * the breaker if it succeeds or opens it again if it fails.
+ */
+
+public final class CircuitBreaker {
+
+    // Default number of consecutive failures after which the breaker opens
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    // Default time for which the breaker stays open
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 30 * 1000;
+
+    // States of the breaker
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    private final int mFailureThreshold;
+    private final long mOpenDurationMillis;
+
+    private int mState = CLOSED;
+
+    // Number of consecutive failed requests
+    private int mConsecutiveFailures;
+
+    // Time at which the breaker last opened
+    private long mOpenedAt;
+
+    // Number of times the breaker opened
+    private int mOpenCount;
+
+    // Number of requests which failed fast because the breaker was open
+    private int mRejectedCount;
+
+    /**
+     * Creates a breaker with the default threshold and open duration
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_MILLIS);
+    }
+
+    /**
+     * @param failureThreshold   number of consecutive failures after which the breaker opens
+     * @param openDurationMillis time for which the breaker stays open
+     */
+    public CircuitBreaker(int failureThreshold, long openDurationMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenDurationMillis = openDurationMillis;
+    }
+
+    /**
+     * @return true if a request may be made, false if it has to fail fast
+     */
+    public synchronized boolean allowRequest() {
+
+        if (mState == OPEN) {
+            if (System.currentTimeMillis() - mOpenedAt < mOpenDurationMillis) {
+                mRejectedCount++;
+                return false;
+            }
+            mState = HALF_OPEN;
+        }
+        return true;
+    }
+
+    /**
+     * Records a request to which the API answered, closing the breaker
+     */
+    public synchronized void recordSuccess() {
+        mConsecutiveFailures = 0;
+        mState = CLOSED;
+    }
+
+    /**
+     * Records a request which failed because the API was unreachable or unhealthy
+     */
+    public synchronized void recordFailure() {
+
+        mConsecutiveFailures++;
+        if (mState == HALF_OPEN
+                || (mState == CLOSED && mConsecutiveFailures >= mFailureThreshold)) {
+            mState = OPEN;
+            mOpenedAt = System.currentTimeMillis();
+            mOpenCount++;
+        }
+    }
+
+    /**
+     * @return true if requests currently fail fast
+     */
+    public synchronized boolean isOpen() {
+        return mState == OPEN && System.currentTimeMillis() - mOpenedAt < mOpenDurationMillis;
+    }
+
+    /**
+     * @return number of times the breaker opened
+     */
+    public synchronized int getOpenCount() {
+        return mOpenCount;
+    }
+
+    /**
+     * @return number of requests which failed fast because the breaker was open
+     */
+    public synchronized int getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker[state=" + (mState == CLOSED ? "closed" : mState == OPEN ? "open" : "half-open")
+                + ", consecutiveFailures=" + mConsecutiveFailures + "/" + mFailureThreshold
+                + ", opened=" + mOpenCount
+                + ", rejected=" + mRejectedCount + "]";
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream which counts the bytes read from the underlying stream, used to measure
+ * the bytes received on the wire before the body is decompressed
+ */
+final class CountingInputStream extends FilterInputStream {
+
+    // Number of bytes read from the underlying stream
+    private long mByteCount;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value != -1) {
+            mByteCount++;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0) {
+            mByteCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long skipped = super.skip(count);
+        mByteCount += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * @return number of bytes read from the underlying stream
+     */
+    long getByteCount() {
+        return mByteCount;
+    }
+}
@@ -0,0 +1,565 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * Bounded on-disk cache for the JSON Responses received from the TMDB API
+ * <p>
+ * Entries are keyed by the request URL without the api_key query parameter and evicted in
+ * least recently used order once the size of the stored bodies exceeds the maximum size.
+ * Every entry keeps the ETag and Last-Modified validators of its response so that a stale
+ * entry can be revalidated with a conditional request instead of being downloaded again.
+ */
+
+public final class HttpCache {
+
+    // Version of the format used by the meta files
+    private static final int META_VERSION = 1;
+
+    // Suffix of the file containing the body of an entry
+    private static final String BODY_SUFFIX = ".body";
+
+    // Suffix of the file containing the validators and the expiry time of an entry
+    private static final String META_SUFFIX = ".meta";
+
+    // Suffix of a body file which is still being written
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Query parameter which is left out of the cache key
+    private static final String API_KEY_PARAMETER = "api_key";
+
+    // Directory in which the entries are stored
+    private final File mDirectory;
+
+    // Maximum number of bytes the stored bodies may occupy
+    private final long mMaxSizeBytes;
+
+    // Entries in access order, least recently used first
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(32, 0.75f, true);
+
+    // Number of bytes occupied by the stored bodies
+    private long mSizeBytes;
+
+    // Whether the entries already on disk have been read into mEntries
+    private boolean mInitialized;
+
+    // Number of responses served from the cache without any network request
+    private int mHitCount;
+
+    // Number of responses served from the cache after a 304 Not Modified response
+    private int mRevalidateCount;
+
+    // Number of responses which had to be downloaded in full
+    private int mMissCount;
+
+    // Number of stale responses served because the API could not be queried
+    private int mStaleHitCount;
+
+    // Number of body bytes downloaded for the responses which had to be downloaded in full
+    private long mNetworkBytes;
+
+    /**
+     * Creates a cache which stores its entries in the given directory
+     *
+     * @param directory    the directory in which the entries are stored
+     * @param maxSizeBytes the maximum number of bytes the stored bodies may occupy
+     */
+    public HttpCache(File directory, long maxSizeBytes) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Creates the cache key for a URL, which is the normalised URL without the api_key query
+     * parameter; the host is lower cased and the query parameters are sorted
+     *
+     * @param url the URL being queried
+     * @return the cache key of the URL
+     */
+    public static String keyFor(URL url) {
+
+        StringBuilder key = new StringBuilder();
+        key.append(url.getProtocol()).append("://").append(url.getHost().toLowerCase(Locale.US));
+        if (url.getPort() != -1) {
+            key.append(':').append(url.getPort());
+        }
+        key.append(url.getPath());
+
+        String query = url.getQuery();
+        if (query != null) {
+            String[] parameters = query.split("&");
+            Arrays.sort(parameters);
+            char separator = '?';
+            for (String parameter : parameters) {
+                if (parameter.isEmpty()
+                        || parameter.equals(API_KEY_PARAMETER)
+                        || parameter.startsWith(API_KEY_PARAMETER + "=")) {
+                    continue;
+                }
+                key.append(separator).append(parameter);
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Computes the time until which a response may be served without revalidation
+     * from its Cache-Control and Expires headers
+     *
+     * @param connection the connection on which the response was received
+     * @param now        the time at which the response was received
+     * @return the expiry time in milliseconds, or -1 if the response must not be stored
+     */
+    public static long computeExpiresAt(HttpURLConnection connection, long now) {
+
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store")) {
+                    return -1;
+                } else if (directive.equals("no-cache")) {
+                    return now;
+                } else if (directive.startsWith("max-age=")) {
+                    try {
+                        long maxAgeSeconds = Long.parseLong(directive.substring(8).trim());
+                        return now + Math.max(0, maxAgeSeconds) * 1000;
+                    } catch (NumberFormatException e) {
+                        return now;
+                    }
+                }
+            }
+        }
+
+        // Falls back to the Expires header; without it the entry always needs revalidation
+        long expires = connection.getExpiration();
+        return expires > now ? expires : now;
+    }
+
+    /**
+     * Returns the entry stored for the key and marks it as the most recently used one
+     *
+     * @param key the cache key of the request
+     * @return the stored entry or null if there is none
+     */
+    public synchronized Entry get(String key) {
+        ensureInitialized();
+        return mEntries.get(key);
+    }
+
+    /**
+     * Opens the stored body of an entry
+     *
+     * @param entry the entry whose body is read
+     * @return a stream over the body of the entry
+     * @throws IOException if the body is not present on disk anymore
+     */
+    public InputStream openBody(Entry entry) throws IOException {
+        return new FileInputStream(bodyFile(entry.mFileName));
+    }
+
+    /**
+     * Starts writing a new body for the key; the entry is only visible once it is committed
+     *
+     * @param key the cache key of the request
+     * @return an Editor to write the body with
+     * @throws IOException if the cache directory cannot be created
+     */
+    public Editor edit(String key) throws IOException {
+        synchronized (this) {
+            ensureInitialized();
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + mDirectory);
+        }
+        return new Editor(key);
+    }
+
+    /**
+     * Extends the freshness of an entry after the server confirmed it with a 304 response, unless
+     * the entry was replaced or removed during the revalidation, whose files may then be gone or
+     * belong to the entry replacing it
+     *
+     * @param entry     the entry which was revalidated
+     * @param expiresAt the new expiry time of the entry
+     */
+    public synchronized void updateExpiry(Entry entry, long expiresAt) {
+        ensureInitialized();
+        if (mEntries.get(entry.mKey) != entry) {
+            return;
+        }
+        entry.mExpiresAt = expiresAt;
+        try {
+            writeMeta(entry);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes the entry stored for the key, if any
+     *
+     * @param key the cache key of the request
+     */
+    public synchronized void remove(String key) {
+        ensureInitialized();
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            deleteFiles(entry);
+        }
+    }
+
+    /**
+     * Records a response which was served from the cache without a network request
+     */
+    public synchronized void recordHit() {
+        mHitCount++;
+    }
+
+    /**
+     * Records a response which was served from the cache after a 304 response
+     */
+    public synchronized void recordRevalidation() {
+        mRevalidateCount++;
+    }
+
+    /**
+     * Records a response which had to be downloaded in full
+     *
+     * @param bodyBytes the number of body bytes which were downloaded
+     */
+    public synchronized void recordMiss(long bodyBytes) {
+        mMissCount++;
+        mNetworkBytes += bodyBytes;
+    }
+
+    /**
+     * Records a stale response which was served because the API could not be queried
+     */
+    public synchronized void recordStaleHit() {
+        mStaleHitCount++;
+    }
+
+    /**
+     * @return number of responses served from the cache without any network request
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of responses served from the cache after a 304 Not Modified response
+     */
+    public synchronized int getRevalidateCount() {
+        return mRevalidateCount;
+    }
+
+    /**
+     * @return number of responses which had to be downloaded in full
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return number of stale responses served because the API could not be queried
+     */
+    public synchronized int getStaleHitCount() {
+        return mStaleHitCount;
+    }
+
+    /**
+     * @return number of body bytes downloaded for the responses which were not served by the cache
+     */
+    public synchronized long getNetworkBytes() {
+        return mNetworkBytes;
+    }
+
+    /**
+     * @return number of bytes occupied by the stored bodies
+     */
+    public synchronized long getSizeBytes() {
+        ensureInitialized();
+        return mSizeBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HttpCache[hits=" + mHitCount
+                + ", revalidations=" + mRevalidateCount
+                + ", misses=" + mMissCount
+                + ", staleHits=" + mStaleHitCount
+                + ", networkBytes=" + mNetworkBytes
+                + ", size=" + mSizeBytes + "/" + mMaxSizeBytes + "]";
+    }
+
+    /**
+     * Reads the entries already present on disk, oldest first, so that they are evicted first
+     */
+    private void ensureInitialized() {
+
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+
+        File[] metaFiles = mDirectory.listFiles();
+        if (metaFiles == null) {
+            return;
+        }
+        Arrays.sort(metaFiles, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : metaFiles) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Leftover of a write which never completed
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+            if (!name.endsWith(META_SUFFIX)) {
+                continue;
+            }
+            String fileName = name.substring(0, name.length() - META_SUFFIX.length());
+            Entry entry = readMeta(file, fileName);
+            File body = bodyFile(fileName);
+            if (entry == null || !body.isFile()) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                //noinspection ResultOfMethodCallIgnored
+                body.delete();
+                continue;
+            }
+            entry.mSizeBytes = body.length();
+            mEntries.put(entry.mKey, entry);
+            mSizeBytes += entry.mSizeBytes;
+        }
+        trimToSize();
+    }
+
+    /**
+     * Adds a committed entry, replacing the previous entry for the same key
+     */
+    private synchronized void commit(Entry entry, File tempBody) throws IOException {
+
+        ensureInitialized();
+        Entry previous = mEntries.remove(entry.mKey);
+        if (previous != null) {
+            mSizeBytes -= previous.mSizeBytes;
+        }
+        File body = bodyFile(entry.mFileName);
+        if (!tempBody.renameTo(body)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempBody.delete();
+            deleteFiles(entry);
+            throw new IOException("Unable to commit cache entry " + entry.mKey);
+        }
+        writeMeta(entry);
+        mEntries.put(entry.mKey, entry);
+        mSizeBytes += entry.mSizeBytes;
+        trimToSize();
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits in its maximum size
+     */
+    private void trimToSize() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mSizeBytes > mMaxSizeBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            mSizeBytes -= eldest.mSizeBytes;
+            deleteFiles(eldest);
+        }
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(metaFile(entry.mFileName)));
+        try {
+            out.writeInt(META_VERSION);
+            out.writeUTF(entry.mKey);
+            out.writeUTF(entry.mEtag == null ? "" : entry.mEtag);
+            out.writeUTF(entry.mLastModified == null ? "" : entry.mLastModified);
+            out.writeLong(entry.mExpiresAt);
+        } finally {
+            out.close();
+        }
+    }
+
+    private Entry readMeta(File file, String fileName) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != META_VERSION) {
+                return null;
+            }
+            String key = in.readUTF();
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            long expiresAt = in.readLong();
+            return new Entry(key, fileName, etag.isEmpty() ? null : etag,
+                    lastModified.isEmpty() ? null : lastModified, expiresAt);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // Nothing left to do with a meta file which could not be closed
+                }
+            }
+        }
+    }
+
+    private void deleteFiles(Entry entry) {
+        //noinspection ResultOfMethodCallIgnored
+        bodyFile(entry.mFileName).delete();
+        //noinspection ResultOfMethodCallIgnored
+        metaFile(entry.mFileName).delete();
+    }
+
+    private File bodyFile(String fileName) {
+        return new File(mDirectory, fileName + BODY_SUFFIX);
+    }
+
+    private File metaFile(String fileName) {
+        return new File(mDirectory, fileName + META_SUFFIX);
+    }
+
+    /**
+     * @return hex encoded MD5 hash of the key, used as the file name of its entry
+     */
+    private static String fileNameFor(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte value : digest) {
+                name.append(String.format(Locale.US, "%02x", value & 0xff));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    /**
+     * A response stored in the cache along with its validators
+     */
+    public static final class Entry {
+
+        private final String mKey, mFileName, mEtag, mLastModified;
+
+        // Time until which the entry may be served without revalidation
+        private long mExpiresAt;
+
+        // Number of bytes occupied by the body
+        private long mSizeBytes;
+
+        private Entry(String key, String fileName, String etag, String lastModified, long expiresAt) {
+            mKey = key;
+            mFileName = fileName;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mExpiresAt = expiresAt;
+        }
+
+        /**
+         * @return true if the entry may be served without revalidation
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < mExpiresAt;
+        }
+
+        /**
+         * @return the ETag of the stored response, or null
+         */
+        public String getEtag() {
+            return mEtag;
+        }
+
+        /**
+         * @return the Last-Modified date of the stored response, or null
+         */
+        public String getLastModified() {
+            return mLastModified;
+        }
+    }
+
+    /**
+     * Writes the body of a new entry to a temporary file which replaces the old entry on commit
+     */
+    public final class Editor {
+
+        private final String mKey;
+        private final File mTempBody;
+        private final OutputStream mOutputStream;
+        private long mWrittenBytes;
+
+        private Editor(String key) throws IOException {
+            mKey = key;
+            mTempBody = new File(mDirectory, fileNameFor(key) + "." + System.nanoTime() + TEMP_SUFFIX);
+            mOutputStream = new FileOutputStream(mTempBody);
+        }
+
+        /**
+         * Appends bytes to the body
+         */
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            mOutputStream.write(buffer, offset, count);
+            mWrittenBytes += count;
+        }
+
+        /**
+         * Publishes the written body along with the validators of its response
+         *
+         * @param connection the connection on which the response was received
+         * @param expiresAt  the time until which the entry may be served without revalidation
+         */
+        public void commit(HttpURLConnection connection, long expiresAt) throws IOException {
+            mOutputStream.close();
+            Entry entry = new Entry(mKey, fileNameFor(mKey),
+                    connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"),
+                    expiresAt);
+            entry.mSizeBytes = mWrittenBytes;
+            HttpCache.this.commit(entry, mTempBody);
+        }
+
+        /**
+         * Discards the written body
+         */
+        public void abort() {
+            try {
+                mOutputStream.close();
+            } catch (IOException ignored) {
+                // The temporary file is deleted either way
+            }
+            //noinspection ResultOfMethodCallIgnored
+            mTempBody.delete();
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the TMDB API answers a request with an unexpected status code
+ */
+
+public class HttpStatusException extends IOException {
+
+    // Status code of the response
+    private final int mResponseCode;
+
+    // Delay requested by the server through Retry-After, or -1 if none
+    private final long mRetryAfterMillis;
+
+    /**
+     * @param responseCode     status code of the response
+     * @param retryAfterMillis delay requested by the server through Retry-After, or -1 if none
+     * @param cacheKey         the URL which was queried, without the api_key
+     */
+    public HttpStatusException(int responseCode, long retryAfterMillis, String cacheKey) {
+        super("Unexpected response code " + responseCode + " for " + cacheKey);
+        mResponseCode = responseCode;
+        mRetryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return status code of the response
+     */
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * @return delay requested by the server through Retry-After, or -1 if none
+     */
+    public long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+}
@@ -1,15 +1,23 @@
 package com.example.android.popularflicks.utilites;
 
-import com.example.android.popularflicks.Movie;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.example.android.popularflicks.Movie;
+import com.example.android.popularflicks.MovieDetails;
+import com.example.android.popularflicks.MoviePage;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 
 /**
  * Parses the JSON Response received by querying the TMDB database to obtain usable data
+ * <p>
+ * Responses are read token by token straight from the response stream. Objects are emitted as
+ * the results array is walked and the fields which are not required are skipped without
+ * being materialised, so memory use does not grow with the size of the response.
  */
 
 public final class JSONUtils {
@@ -17,9 +25,6 @@ public final class JSONUtils {
     // Key for poster path attribute
     private static final String TMDB_POSTER_PATH = "poster_path";
 
-    // Base path to be used to obtain poster path
-    private static final String posterBasePath = "https://image.tmdb.org/t/p/w300/";
-
     // Key for release date attribute
     private static final String TMDB_RELEASE_DATE = "release_date";
 
@@ -38,6 +43,18 @@ public final class JSONUtils {
     // Key for results obtained in the JSON data
     private static final String TMDB_RESULTS = "results";
 
+    // Key for the number of the page obtained in the JSON data
+    private static final String TMDB_PAGE = "page";
+
+    // Key for the total number of pages of the list obtained in the JSON data
+    private static final String TMDB_TOTAL_PAGES = "total_pages";
+
+    // Key for the reviews appended to the details of a movie
+    private static final String TMDB_APPENDED_REVIEWS = "reviews";
+
+    // Key for the videos appended to the details of a movie
+    private static final String TMDB_APPENDED_VIDEOS = "videos";
+
     // Key for author name of the review
     private static final String TMDB_REVIEWS_AUTHOR = "author";
 
@@ -65,89 +82,347 @@ public final class JSONUtils {
     // Base link for trailers on YouTube
     private static final String trailerBasePath = "https://www.youtube.com/watch?v=";
 
+    // Parses a list of movies, see extractMoviesFromJson
+    public static final ResponseParser<ArrayList<Movie>> MOVIES_PARSER =
+            new ResponseParser<ArrayList<Movie>>() {
+                @Override
+                public ArrayList<Movie> parse(InputStream in) throws IOException {
+                    return extractMoviesFromJson(in);
+                }
+            };
+
+    // Parses a page of a list of movies, see extractMoviePageFromJson
+    public static final ResponseParser<MoviePage> MOVIE_PAGE_PARSER =
+            new ResponseParser<MoviePage>() {
+                @Override
+                public MoviePage parse(InputStream in) throws IOException {
+                    return extractMoviePageFromJson(in);
+                }
+            };
+
+    // Parses a list of reviews, see extractReviewsFromJson
+    public static final ResponseParser<ArrayList<Movie.Review>> REVIEWS_PARSER =
+            new ResponseParser<ArrayList<Movie.Review>>() {
+                @Override
+                public ArrayList<Movie.Review> parse(InputStream in) throws IOException {
+                    return extractReviewsFromJson(in);
+                }
+            };
+
+    // Parses a list of trailers, see extractTrailersFromJson
+    public static final ResponseParser<ArrayList<Movie.Trailer>> TRAILERS_PARSER =
+            new ResponseParser<ArrayList<Movie.Trailer>>() {
+                @Override
+                public ArrayList<Movie.Trailer> parse(InputStream in) throws IOException {
+                    return extractTrailersFromJson(in);
+                }
+            };
+
+    // Parses the details of a movie with its reviews and videos appended, see extractDetailsFromJson
+    public static final ResponseParser<MovieDetails> MOVIE_DETAILS_PARSER =
+            new ResponseParser<MovieDetails>() {
+                @Override
+                public MovieDetails parse(InputStream in) throws IOException {
+                    return extractDetailsFromJson(in);
+                }
+            };
+
     /**
      * Converts the JSON response to usable data
      *
-     * @param jsonResponse the JSON response received from querying the TMDB database
+     * @param jsonResponse stream over the JSON response received from querying the TMDB database
      * @return ArrayList containing data of movies
-     * @throws JSONException incase the JSON is not correctly formatted
+     * @throws IOException incase the JSON is not correctly formatted
      */
-    public static ArrayList<Movie> extractMoviesFromJson(String jsonResponse) throws JSONException {
-
-        ArrayList<Movie> listOfMovies = new ArrayList<>();
-
-        // Required to parse the JSON Response
-        JSONObject parentObject = new JSONObject(jsonResponse);
-        JSONArray results = parentObject.getJSONArray(TMDB_RESULTS);
-
-        // Receives values of the attributes of movies
-        for (int index = 0; index < results.length(); index++) {
+    public static ArrayList<Movie> extractMoviesFromJson(InputStream jsonResponse) throws IOException {
+        return extractMoviePageFromJson(jsonResponse).getMovies();
+    }
 
-            JSONObject movie = results.getJSONObject(index);
+    /**
+     * Converts the JSON response for one page of a list to usable data
+     *
+     * @param jsonResponse stream over the JSON response received from querying the TMDB database
+     * @return the page containing data of movies along with its position in the list
+     * @throws IOException incase the JSON is not correctly formatted
+     */
+    public static MoviePage extractMoviePageFromJson(InputStream jsonResponse) throws IOException {
 
-            String posterPath = posterBasePath + movie.getString(TMDB_POSTER_PATH);
-            String releaseData = movie.getString(TMDB_RELEASE_DATE);
-            String title = movie.getString(TMDB_ORIGINAL_TITLE);
-            String userRating = movie.getString(TMDB_VOTE_AVERAGE);
-            String synopsis = movie.getString(TMDB_SYNOPSIS);
-            String id = movie.getString(TMDB_ID);
+        ArrayList<Movie> listOfMovies = new ArrayList<>();
 
-            // Adds the data of the movie to the ArrayList to be returned
-            listOfMovies.add(new Movie(title, synopsis, posterPath, releaseData, userRating, id));
+        // A response without pagination fields is a single page
+        int page = 1;
+        int totalPages = 1;
+
+        JsonReader reader = newReader(jsonResponse);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case TMDB_RESULTS:
+
+                        // Receives values of the attributes of movies
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            listOfMovies.add(readMovie(reader));
+                        }
+                        reader.endArray();
+                        break;
+                    case TMDB_PAGE:
+                        page = reader.nextInt();
+                        break;
+                    case TMDB_TOTAL_PAGES:
+                        totalPages = reader.nextInt();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed movies JSON Response", e);
         }
 
-        return listOfMovies;
+        return new MoviePage(page, totalPages, listOfMovies);
     }
 
     /**
      * Extracts required fields of the reviews from the JSON Response
-     * @param selectedMovie the selected movie to get reviews from
-     * @param jsonResponse the JSON Response received
-     * @return the movie object after addition of reviews
-     * @throws JSONException might arise while parsing JSON
+     * @param jsonResponse stream over the JSON Response received
+     * @return the reviews contained in the response
+     * @throws IOException might arise while parsing JSON
      */
-    public static Movie extractReviewsFromJson(Movie selectedMovie, String jsonResponse) throws JSONException {
+    public static ArrayList<Movie.Review> extractReviewsFromJson(InputStream jsonResponse) throws IOException {
+
+        JsonReader reader = newReader(jsonResponse);
+        try {
+            return readReviewResults(reader);
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed reviews JSON Response", e);
+        }
+    }
 
-        JSONObject parentObject = new JSONObject(jsonResponse);
-        JSONArray results = parentObject.getJSONArray(TMDB_RESULTS);
+    /**
+     * Extracts required fields of the trailers from the JSON Response
+     * @param jsonResponse stream over the JSON Response received
+     * @return the YouTube trailers contained in the response
+     * @throws IOException might arise while parsing JSON
+     */
+    public static ArrayList<Movie.Trailer> extractTrailersFromJson(InputStream jsonResponse) throws IOException {
 
-        for (int index = 0; index < results.length(); index++) {
-            JSONObject review = results.getJSONObject(index);
-            String author = review.getString(TMDB_REVIEWS_AUTHOR);
-            String content = review.getString(TMDB_REVIEWS_CONTENT);
+        JsonReader reader = newReader(jsonResponse);
+        try {
+            return readTrailerResults(reader);
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed trailers JSON Response", e);
+        }
+    }
 
-            selectedMovie.addReview(author, content);
+    /**
+     * Extracts the reviews and trailers from the JSON Response for the details of a movie
+     * requested with the reviews and videos appended, in a single pass
+     * @param jsonResponse stream over the JSON Response received
+     * @return the reviews and YouTube trailers contained in the response
+     * @throws IOException might arise while parsing JSON
+     */
+    public static MovieDetails extractDetailsFromJson(InputStream jsonResponse) throws IOException {
+
+        ArrayList<Movie.Review> reviews = new ArrayList<>();
+        ArrayList<Movie.Trailer> trailers = new ArrayList<>();
+
+        JsonReader reader = newReader(jsonResponse);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case TMDB_APPENDED_REVIEWS:
+                        reviews = readReviewResults(reader);
+                        break;
+                    case TMDB_APPENDED_VIDEOS:
+                        trailers = readTrailerResults(reader);
+                        break;
+                    default:
+                        // The details of the movie are already known from the list
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed details JSON Response", e);
         }
-        return selectedMovie;
+        return new MovieDetails(reviews, trailers);
     }
+
     /**
-     * Extracts required fields of the trailers from the JSON Response
-     * @param selectedMovie the selected movie to get trailers from
-     * @param jsonResponse the JSON Response received
-     * @return the movie object after addition of trailers
-     * @throws JSONException might arise while parsing JSON
+     * Reads an object containing a results array of reviews
      */
-    public static Movie extractTrailersFromJson(Movie selectedMovie, String jsonResponse) throws JSONException {
+    private static ArrayList<Movie.Review> readReviewResults(JsonReader reader) throws IOException {
+
+        ArrayList<Movie.Review> reviews = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(TMDB_RESULTS)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Movie.Review review = readReview(reader);
+                    if (review != null) {
+                        reviews.add(review);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return reviews;
+    }
 
+    /**
+     * Reads an object containing a results array of videos, keeping the YouTube trailers
+     */
+    private static ArrayList<Movie.Trailer> readTrailerResults(JsonReader reader) throws IOException {
+
+        ArrayList<Movie.Trailer> trailers = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(TMDB_RESULTS)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Movie.Trailer trailer = readTrailer(reader);
+                    if (trailer != null) {
+                        trailers.add(trailer);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return trailers;
+    }
 
-        JSONObject parentObject = new JSONObject(jsonResponse);
-        JSONArray results = parentObject.getJSONArray(TMDB_RESULTS);
+    /**
+     * Reads one movie object of the results array
+     */
+    private static Movie readMovie(JsonReader reader) throws IOException {
+
+        String posterPath = null, releaseData = null, title = null,
+                userRating = null, synopsis = null, id = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case TMDB_POSTER_PATH:
+                    // Kept relative; the rendition is picked when the poster is displayed
+                    posterPath = nextStringOrNull(reader);
+                    break;
+                case TMDB_RELEASE_DATE:
+                    releaseData = nextStringOrNull(reader);
+                    break;
+                case TMDB_ORIGINAL_TITLE:
+                    title = nextStringOrNull(reader);
+                    break;
+                case TMDB_VOTE_AVERAGE:
+                    userRating = nextStringOrNull(reader);
+                    break;
+                case TMDB_SYNOPSIS:
+                    synopsis = nextStringOrNull(reader);
+                    break;
+                case TMDB_ID:
+                    id = nextStringOrNull(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-        for (int index = 0; index < results.length(); index++)
+        return new Movie(title, synopsis, posterPath, releaseData, userRating, id);
+    }
 
-        {
-            JSONObject video = results.getJSONObject(index);
-            String site = video.getString(TMDB_TRAILERS_SITE_KEY);
-            String type = video.getString(TMDB_TRAILERS_TYPE_KEY);
+    /**
+     * Reads one review object of the results array
+     *
+     * @return the review, or null if it has no author or content
+     */
+    private static Movie.Review readReview(JsonReader reader) throws IOException {
+
+        String author = null, content = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case TMDB_REVIEWS_AUTHOR:
+                    author = nextStringOrNull(reader);
+                    break;
+                case TMDB_REVIEWS_CONTENT:
+                    content = nextStringOrNull(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-            // Only YouTube videos which are trailers are required
-            if (site.equals(TMDB_TRAILERS_SITE_VALUE) && type.equals(TMDB_TRAILERS_TYPE_VALUE)) {
-                String title = video.getString(TMDB_TRAILERS_NAME_KEY);
-                String link = trailerBasePath + video.getString(TMDB_TRAILERS_LINK_KEY);
+        return author == null || content == null ? null : new Movie.Review(author, content);
+    }
 
-                selectedMovie.addTrailer(link, title);
+    /**
+     * Reads one video object of the results array
+     *
+     * @return the trailer, or null if the video is not a YouTube trailer
+     */
+    private static Movie.Trailer readTrailer(JsonReader reader) throws IOException {
+
+        String site = null, type = null, name = null, key = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case TMDB_TRAILERS_SITE_KEY:
+                    site = nextStringOrNull(reader);
+                    break;
+                case TMDB_TRAILERS_TYPE_KEY:
+                    type = nextStringOrNull(reader);
+                    break;
+                case TMDB_TRAILERS_NAME_KEY:
+                    name = nextStringOrNull(reader);
+                    break;
+                case TMDB_TRAILERS_LINK_KEY:
+                    key = nextStringOrNull(reader);
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
-        return selectedMovie;
+        reader.endObject();
+
+        // Only YouTube videos which are trailers are required
+        if (TMDB_TRAILERS_SITE_VALUE.equals(site) && TMDB_TRAILERS_TYPE_VALUE.equals(type)
+                && name != null && key != null) {
+            return new Movie.Trailer(trailerBasePath + key, name);
+        }
+        return null;
+    }
+
+    /**
+     * Reads a string or number value, returning null for a JSON null
+     */
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Creates a reader over a UTF-8 encoded JSON Response
+     */
+    private static JsonReader newReader(InputStream jsonResponse) throws IOException {
+        return new JsonReader(new InputStreamReader(jsonResponse, "UTF-8"));
     }
 }
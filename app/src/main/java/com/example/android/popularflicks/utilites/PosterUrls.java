@@ -0,0 +1,207 @@
+package com.example.android.popularflicks.utilites;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.telephony.TelephonyManager;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Builds the URLs of the poster images from the relative poster paths returned by TMDB,
+ * picking the smallest TMDB rendition which covers the view the poster is displayed in
+ * <p>
+ * The size of the view must be known: a URL built before it is would name another rendition
+ * than the one built once it is, and the poster would be downloaded twice.
+ * <p>
+ * On metered or slow connections the next smaller rendition is picked instead, trading a little
+ * sharpness for bytes and time. Full poster URLs stored before the relative paths were kept are
+ * rebuilt with the picked rendition too.
+ */
+
+public final class PosterUrls {
+
+    // Base URL of the poster images, followed by the rendition and the relative path
+    private static final String IMAGE_BASE_URL = "https://image.tmdb.org/t/p/";
+
+    // Segment preceding the rendition in a full poster URL
+    private static final String IMAGE_PATH_PREFIX = "/t/p/";
+
+    // Widths in pixels of the renditions offered by TMDB, smallest first
+    private static final int[] WIDTHS = {92, 154, 185, 342, 500, 780};
+
+    // Time for which the type of the connection is assumed not to change
+    private static final long NETWORK_CHECK_INTERVAL_MILLIS = 5000;
+
+    // Whether the connection was metered or slow when last checked, and when it was checked
+    private static volatile boolean sConstrainedNetwork;
+    private static volatile long sNetworkCheckedAt = -NETWORK_CHECK_INTERVAL_MILLIS;
+
+    /**
+     * Builds the URL of the poster rendition fitting a view
+     *
+     * @param view       the view in which the poster is displayed, whose size is known
+     * @param posterPath relative path of the poster, or a full poster URL
+     * @return the URL of the poster, or null if the movie has no poster
+     * @throws IllegalArgumentException if the size of the view is not known yet
+     */
+    public static String forView(View view, String posterPath) {
+        return forSize(view.getContext(), posterPath, getContentWidth(view),
+                getContentHeight(view));
+    }
+
+    /**
+     * Builds the URL of the poster rendition fitting a size, e.g. the fixed size of the cells of
+     * a grid, on the current connection
+     *
+     * @param context    used to check the type of the connection
+     * @param posterPath relative path of the poster, or a full poster URL
+     * @param widthPx    width of the view in pixels
+     * @param heightPx   height of the view in pixels
+     * @return the URL of the poster, or null if the movie has no poster
+     * @throws IllegalArgumentException if neither the width nor the height is known
+     */
+    public static String forSize(Context context, String posterPath, int widthPx, int heightPx) {
+        return build(posterPath, widthPx, heightPx, isConstrainedNetwork(context));
+    }
+
+    /**
+     * Builds the URL of a poster rendition
+     *
+     * @param posterPath         relative path of the poster, or a full poster URL
+     * @param widthPx            width of the view in pixels, or 0 to fit the height alone
+     * @param heightPx           height of the view in pixels, or 0 to fit the width alone
+     * @param constrainedNetwork whether the connection is metered or slow
+     * @return the URL of the poster, or null if the movie has no poster
+     * @throws IllegalArgumentException if neither the width nor the height is known
+     */
+    public static String build(String posterPath,
+                               int widthPx,
+                               int heightPx,
+                               boolean constrainedNetwork) {
+
+        // Posters have an aspect ratio of 2:3, so a tall view needs a wider rendition
+        int requiredWidth = Math.max(widthPx, heightPx * 2 / 3);
+        if (requiredWidth <= 0) {
+            throw new IllegalArgumentException("Size of the poster view not known");
+        }
+
+        String relativePath = toRelativePath(posterPath);
+        if (relativePath == null) {
+            return posterPath;
+        }
+
+        int index = WIDTHS.length - 1;
+        for (int candidate = 0; candidate < WIDTHS.length; candidate++) {
+            if (WIDTHS[candidate] >= requiredWidth) {
+                index = candidate;
+                break;
+            }
+        }
+        if (constrainedNetwork && index > 0) {
+            index--;
+        }
+        return IMAGE_BASE_URL + "w" + WIDTHS[index] + relativePath;
+    }
+
+    /**
+     * @return the relative path of the poster starting with a slash, or null if there is none
+     * or the URL is not a TMDB poster URL
+     */
+    private static String toRelativePath(String posterPath) {
+
+        if (posterPath == null || posterPath.isEmpty()) {
+            return null;
+        }
+        if (!posterPath.startsWith("http")) {
+            return posterPath.startsWith("/") ? posterPath : "/" + posterPath;
+        }
+
+        // Full URL such as https://image.tmdb.org/t/p/w300//abc.jpg
+        int prefix = posterPath.indexOf(IMAGE_PATH_PREFIX);
+        if (prefix == -1) {
+            return null;
+        }
+        int sizeEnd = posterPath.indexOf('/', prefix + IMAGE_PATH_PREFIX.length());
+        if (sizeEnd == -1) {
+            return null;
+        }
+        int pathStart = sizeEnd;
+        while (pathStart + 1 < posterPath.length() && posterPath.charAt(pathStart + 1) == '/') {
+            pathStart++;
+        }
+        return posterPath.substring(pathStart);
+    }
+
+    /**
+     * @return the width available to the poster, from the laid out or declared size of the view,
+     * or 0 if it is not known yet
+     */
+    public static int getContentWidth(View view) {
+
+        int width = view.getWidth();
+        if (width == 0) {
+            ViewGroup.LayoutParams params = view.getLayoutParams();
+            width = params == null ? 0 : Math.max(0, params.width);
+        }
+        return width == 0 ? 0 : Math.max(0, width - view.getPaddingLeft() - view.getPaddingRight());
+    }
+
+    /**
+     * @return the height available to the poster, from the laid out or declared size of the view,
+     * or 0 if it is not known yet
+     */
+    public static int getContentHeight(View view) {
+
+        int height = view.getHeight();
+        if (height == 0) {
+            ViewGroup.LayoutParams params = view.getLayoutParams();
+            height = params == null ? 0 : Math.max(0, params.height);
+        }
+        return height == 0 ? 0
+                : Math.max(0, height - view.getPaddingTop() - view.getPaddingBottom());
+    }
+
+    /**
+     * @return true if the active connection is metered or a 2G connection; the answer is reused
+     * for a few seconds, as posters are bound many times per second while scrolling
+     */
+    private static boolean isConstrainedNetwork(Context context) {
+
+        long now = SystemClock.elapsedRealtime();
+        if (now - sNetworkCheckedAt < NETWORK_CHECK_INTERVAL_MILLIS) {
+            return sConstrainedNetwork;
+        }
+
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        boolean constrained = false;
+        if (connectivityManager != null) {
+            NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+            constrained = ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager)
+                    || (networkInfo != null && isSlow(networkInfo));
+        }
+        sConstrainedNetwork = constrained;
+        sNetworkCheckedAt = now;
+        return constrained;
+    }
+
+    private static boolean isSlow(NetworkInfo networkInfo) {
+
+        if (networkInfo.getType() != ConnectivityManager.TYPE_MOBILE) {
+            return false;
+        }
+        switch (networkInfo.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
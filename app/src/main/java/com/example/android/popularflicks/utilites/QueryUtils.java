@@ -5,12 +5,17 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Handles network requests to receive a JSON Response
@@ -19,8 +24,11 @@ import java.util.Scanner;
 
 public final class QueryUtils {
 
-    // The base url to be used to query the movie database
-    private static final String BASE_URL = "https://api.themoviedb.org/3/movie";
+    // The default base url to be used to query the movie database
+    private static final String DEFAULT_BASE_URL = "https://api.themoviedb.org/3/movie";
+
+    // The base url to be used to query the movie database; a local stand-in in tests
+    private static volatile String sBaseUrl = DEFAULT_BASE_URL;
 
     // Path to be used for popularity sorting
     private static final String PATH_POPULARITY = "popular";
@@ -40,13 +48,235 @@ public final class QueryUtils {
     // Path for reviews to be fetched in the detail activity
     private static final String PATH_REVIEWS = "reviews";
 
+    // Key for the responses to be appended to the details of a movie
+    private static final String QUERY_APPEND_TO_RESPONSE = "append_to_response";
+
+    // Whether the detail activity fetches the reviews and trailers in a single request using
+    // append_to_response, instead of one concurrent request each with its own timeout, each
+    // section being displayed as soon as it arrives; the prefetches always use a single request
+    public static boolean useCombinedDetailRequest = false;
+
     // API KEY key
     private static final String QUERY_API_KEY = "api_key";
 
+    // Page key, used to request one page of the popular or top rated list
+    private static final String QUERY_PAGE = "page";
+
     // TODO Enter API KEY value which is to be specified by the user
     private static final String QUERY_API_KEY_VALUE = "";
 
+    // Name of the directory inside the app's cache directory used by the response cache
+    private static final String RESPONSE_CACHE_DIRECTORY = "tmdb-responses";
+
+    // Maximum size of the response cache in bytes
+    private static final long RESPONSE_CACHE_MAX_SIZE_BYTES = 4 * 1024 * 1024;
+
+    // On-disk cache of the JSON Responses; null until installResponseCache is called
+    private static HttpCache sResponseCache;
+
+    // Shared client used for every request made to the TMDB API
+    private static TmdbClient sClient;
+
+    // Collapses concurrent requests for the same URL into one
+    private static final SingleFlight sSingleFlight = new SingleFlight();
+
+    // Bytes received on the wire and after decompression, by endpoint
+    private static final TransferStats sTransferStats = new TransferStats();
+
+    // Timing breakdown of the exchanges, by endpoint
+    private static final RequestMetrics sRequestMetrics = new RequestMetrics();
+
+    // Bytes received on the wire by the exchanges run on each thread
+    private static final ThreadLocal<long[]> sThreadWireBytes = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    // Keeps the requests within the quota of the TMDB API
+    private static RateLimiter sRateLimiter;
+
+    // Decides whether and when failed requests are retried
+    private static RetryPolicy sRetryPolicy;
+
+    // Stops requests while the TMDB API is unhealthy
+    private static CircuitBreaker sCircuitBreaker;
+
+    /**
+     * @return the single-flight layer, to read how many concurrent requests were collapsed
+     */
+    public static SingleFlight getSingleFlight() {
+        return sSingleFlight;
+    }
+
+    /**
+     * @return the compressed and uncompressed byte counts of the downloaded responses, by endpoint
+     */
+    public static TransferStats getTransferStats() {
+        return sTransferStats;
+    }
+
+    /**
+     * Returns the bytes received on the wire by the exchanges run on the calling thread, so that
+     * a caller can tell what its own fetch downloaded from the difference before and after it
+     * <p>
+     * A fetch which joins an identical request in flight on another thread downloads nothing
+     * itself and adds nothing.
+     *
+     * @return the bytes received on the wire by the calling thread, including failed and
+     * cancelled exchanges
+     */
+    public static long getThreadWireBytes() {
+        return sThreadWireBytes.get()[0];
+    }
 
+    /**
+     * Sets the base url used to query the movie database, e.g. to query a local stand-in
+     *
+     * @param baseUrl the base url up to and including the movie path, or null for the default
+     */
+    public static void setBaseUrl(String baseUrl) {
+        sBaseUrl = baseUrl == null ? DEFAULT_BASE_URL : baseUrl;
+    }
+
+    /**
+     * @return the path of the selected sort order, popular or top_rated, which identifies the list
+     */
+    public static String getSortOrderPath() {
+        return popularityIsChecked ? PATH_POPULARITY : PATH_RATING;
+    }
+
+    /**
+     * @return the timing breakdown of the exchanges with the TMDB API, by endpoint
+     */
+    public static RequestMetrics getRequestMetrics() {
+        return sRequestMetrics;
+    }
+
+    /**
+     * Prints the request metrics and the statistics of every stage of the network stack,
+     * e.g. from Activity.dump for dumpsys
+     *
+     * @param prefix prefix of every line
+     * @param writer the writer receiving the output
+     */
+    public static void dumpStats(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Request metrics:");
+        sRequestMetrics.dump(prefix + "  ", writer);
+        writer.println(prefix + getClient());
+        writer.println(prefix + sResponseCache);
+        writer.println(prefix + sSingleFlight);
+        writer.println(prefix + getRateLimiter());
+        writer.println(prefix + getRetryPolicy());
+        writer.println(prefix + getCircuitBreaker());
+        writer.println(prefix + sTransferStats);
+    }
+
+    /**
+     * Sets the shared client used for every request made to the TMDB API
+     *
+     * @param client the client to be used, configured with the required timeouts
+     */
+    public static synchronized void setClient(TmdbClient client) {
+        sClient = client;
+    }
+
+    /**
+     * @return the shared client, to read its request statistics
+     */
+    public static synchronized TmdbClient getClient() {
+        if (sClient == null) {
+            sClient = new TmdbClient();
+        }
+        return sClient;
+    }
+
+    /**
+     * Sets the rate limiter through which every request to the TMDB API is made
+     *
+     * @param rateLimiter the limiter to be used, configured with the quota of the API key
+     */
+    public static synchronized void setRateLimiter(RateLimiter rateLimiter) {
+        sRateLimiter = rateLimiter;
+    }
+
+    /**
+     * @return the rate limiter, to read how many requests were throttled
+     */
+    public static synchronized RateLimiter getRateLimiter() {
+        if (sRateLimiter == null) {
+            sRateLimiter = new RateLimiter();
+        }
+        return sRateLimiter;
+    }
+
+    /**
+     * Sets the policy deciding whether and when failed requests are retried
+     *
+     * @param retryPolicy the policy to be used
+     */
+    public static synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+        sRetryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the retry policy, to read how many requests were retried
+     */
+    public static synchronized RetryPolicy getRetryPolicy() {
+        if (sRetryPolicy == null) {
+            sRetryPolicy = new RetryPolicy();
+        }
+        return sRetryPolicy;
+    }
+
+    /**
+     * Sets the circuit breaker which stops requests while the TMDB API is unhealthy
+     *
+     * @param circuitBreaker the breaker to be used
+     */
+    public static synchronized void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        sCircuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return the circuit breaker, to read how often it opened and how many requests failed fast
+     */
+    public static synchronized CircuitBreaker getCircuitBreaker() {
+        if (sCircuitBreaker == null) {
+            sCircuitBreaker = new CircuitBreaker();
+        }
+        return sCircuitBreaker;
+    }
+
+    /**
+     * Installs the on-disk response cache used by makeHttpRequest
+     *
+     * @param context used to get the cache directory of the app
+     */
+    public static synchronized void installResponseCache(Context context) {
+        if (sResponseCache == null) {
+            File directory = new File(context.getCacheDir(), RESPONSE_CACHE_DIRECTORY);
+            sResponseCache = new HttpCache(directory, RESPONSE_CACHE_MAX_SIZE_BYTES);
+        }
+    }
+
+    /**
+     * Replaces the response cache, e.g. with one in a temporary directory
+     *
+     * @param cache the cache to be used, or null for none
+     */
+    public static synchronized void setResponseCache(HttpCache cache) {
+        sResponseCache = cache;
+    }
+
+    /**
+     * @return the response cache, to read its hit, miss and revalidation counters,
+     * or null if it is not installed
+     */
+    public static HttpCache getResponseCache() {
+        return sResponseCache;
+    }
 
     /**
      * Checks if internet connectivity is present
@@ -62,28 +292,40 @@ public final class QueryUtils {
     }
 
     /**
-     * Creates query URL for fetching data from the TMDB API
+     * Creates query URL for fetching the first page of data from the TMDB API
      *
      * @return the created query URL
      */
     public static URL createMainQueryUrl() {
+        return createMainQueryUrl(1);
+    }
+
+    /**
+     * Creates query URL for fetching one page of data from the TMDB API
+     *
+     * @param page number of the page to be fetched, starting from 1
+     * @return the created query URL
+     */
+    public static URL createMainQueryUrl(int page) {
 
         // Creating a URI object to build upon to create URL
         Uri uri;
 
         // Creates query with sort order of decreasing popularity
         if (popularityIsChecked) {
-            uri = Uri.parse(BASE_URL).buildUpon()
+            uri = Uri.parse(sBaseUrl).buildUpon()
                     .appendPath(PATH_POPULARITY)
                     .appendQueryParameter(QUERY_API_KEY, QUERY_API_KEY_VALUE)
+                    .appendQueryParameter(QUERY_PAGE, String.valueOf(page))
                     .build();
         }
 
         // Creates query with top rated movies
         else {
-            uri = Uri.parse(BASE_URL).buildUpon()
+            uri = Uri.parse(sBaseUrl).buildUpon()
                     .appendPath(PATH_RATING)
                     .appendQueryParameter(QUERY_API_KEY, QUERY_API_KEY_VALUE)
+                    .appendQueryParameter(QUERY_PAGE, String.valueOf(page))
                     .build();
         }
 
@@ -117,6 +359,33 @@ public final class QueryUtils {
         return createDetailQueryUrl(id, PATH_VIDEOS);
     }
 
+    /**
+     * Creates URL to query for the details of a movie with its reviews and trailers appended,
+     * so that all of them are received in a single request
+     * @param id id of the movie
+     * @return the created URL
+     */
+    public static URL createMovieDetailsQueryUrl(String id) {
+
+        // Creating a URI object to build upon to create URL
+        Uri uri = Uri.parse(sBaseUrl).buildUpon()
+                .appendPath(id)
+                .appendQueryParameter(QUERY_API_KEY, QUERY_API_KEY_VALUE)
+                .appendQueryParameter(QUERY_APPEND_TO_RESPONSE, PATH_VIDEOS + "," + PATH_REVIEWS)
+                .build();
+
+        // URL object to store the created url
+        URL queryUrl = null;
+        try {
+            // Converts the URI to a URL
+            queryUrl = new URL(uri.toString());
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+        }
+
+        return queryUrl;
+    }
+
     /**
      * Creates URL for reviews or trailers depending on the param pathToBeUsed
      * @param idOfMovie id of the movie being queried for
@@ -126,7 +395,7 @@ public final class QueryUtils {
     private static URL createDetailQueryUrl(String idOfMovie,String pathToBeUsed) {
 
         // Creating a URI object to build upon to create URL
-        Uri uri = Uri.parse(BASE_URL).buildUpon()
+        Uri uri = Uri.parse(sBaseUrl).buildUpon()
                 .appendPath(idOfMovie)
                 .appendPath(pathToBeUsed)
                 .appendQueryParameter(QUERY_API_KEY, QUERY_API_KEY_VALUE)
@@ -152,21 +421,415 @@ public final class QueryUtils {
      * @throws IOException in case there are input/output discrepancies
      */
     public static String makeHttpRequest(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        return fetch(url, STRING_PARSER);
+    }
+
+    /**
+     * Makes an HTTP GET request to query the TMDB database and parses the response while it
+     * is being received and decompressed, without holding the JSON Response in memory
+     * <p>
+     * Fresh responses are parsed from the response cache without a network request. Stale ones
+     * are revalidated using their ETag or Last-Modified date and parsed from disk on a 304.
+     * Downloaded responses are copied into the cache as they are parsed.
+     * <p>
+     * Requests go through the rate limiter, and network errors, 429 and 5xx responses are
+     * retried with backoff. While the circuit breaker is open, or once the retries are exhausted,
+     * the stale cached response is returned if there is one.
+     * <p>
+     * Concurrent calls for the same URL and parser share one request and one parsed result,
+     * which callers must copy before modifying.
+     *
+     * @param url    the url to be used to query the TMDB database
+     * @param parser converts the body of the response into usable data
+     * @param <T>    type of the data obtained from the response
+     * @return the data obtained from the response
+     * @throws IOException in case there are input/output discrepancies
+     */
+    public static <T> T fetch(URL url, ResponseParser<T> parser) throws IOException {
+        return fetch(url, parser, null);
+    }
+
+    /**
+     * Makes the request of {@link #fetch(URL, ResponseParser)}, which stops as soon as the token
+     * is cancelled
+     * <p>
+     * Cancelling closes the connection and stops the parser at its next read. A request shared
+     * with concurrent identical calls keeps running until all of them have cancelled.
+     *
+     * @param url    the url to be used to query the TMDB database
+     * @param parser converts the body of the response into usable data
+     * @param token  cancels the request, or null if it is never cancelled
+     * @param <T>    type of the data obtained from the response
+     * @return the data obtained from the response
+     * @throws RequestCancelledException if the token was cancelled
+     * @throws IOException               in case there are input/output discrepancies
+     */
+    public static <T> T fetch(final URL url,
+                              final ResponseParser<T> parser,
+                              CancellationToken token) throws IOException {
+
+        // Start of the call, from which the queue wait of its first exchange is measured
+        final long fetchStartNanos = System.nanoTime();
+
+        // Identical requests are those for the same normalised URL parsed by the same parser
+        String requestKey = HttpCache.keyFor(url) + " " + parser.getClass().getName();
+
+        return sSingleFlight.execute(requestKey, token, new SingleFlight.Request<T>() {
+            @Override
+            public T call(CancellationToken sharedToken) throws IOException {
+                return fetchFromCacheOrNetwork(url, parser, sharedToken, fetchStartNanos);
+            }
+        });
+    }
+
+    /**
+     * Performs the request of fetch without collapsing it with concurrent identical requests
+     */
+    private static <T> T fetchFromCacheOrNetwork(URL url,
+                                                 ResponseParser<T> parser,
+                                                 CancellationToken token,
+                                                 long fetchStartNanos) throws IOException {
+
+        HttpCache cache = sResponseCache;
+        String cacheKey = HttpCache.keyFor(url);
+        HttpCache.Entry cachedEntry = cache == null ? null : cache.get(cacheKey);
+
+        // Serves a fresh cached response without touching the network
+        if (cachedEntry != null && cachedEntry.isFresh()) {
+            InputStream cachedBody = openCachedBody(cache, cachedEntry, token);
+            if (cachedBody != null) {
+                try {
+                    T result = parser.parse(cachedBody);
+                    cache.recordHit();
+                    return result;
+                } finally {
+                    closeQuietly(cachedBody);
+                }
+            }
+            cachedEntry = null;
+        }
+
+        CircuitBreaker circuitBreaker = getCircuitBreaker();
+        RetryPolicy retryPolicy = getRetryPolicy();
+        RateLimiter rateLimiter = getRateLimiter();
+
+        // Fails fast while the API is unhealthy, serving the stale response if there is one
+        if (!circuitBreaker.allowRequest()) {
+            T staleResult = parseStale(cache, cachedEntry, parser, token);
+            if (staleResult != null) {
+                return staleResult;
+            }
+            throw new IOException("Circuit open, not querying " + cacheKey);
+        }
+
+        // Time at which the next exchange became due
+        long queuedAtNanos = fetchStartNanos;
+
+        IOException failure;
+        for (int attempt = 0; ; attempt++) {
+            token.throwIfCancelled();
+            rateLimiter.acquire(token);
+
+            long retryAfterMillis = -1;
+            try {
+                T result = exchange(url, parser, cache, cacheKey, cachedEntry, token,
+                        queuedAtNanos);
+                circuitBreaker.recordSuccess();
+                return result;
+            } catch (RequestCancelledException e) {
+                // Says nothing about the health of the API
+                throw e;
+            } catch (HttpStatusException e) {
+                if (!RetryPolicy.isRetryable(e.getResponseCode())) {
+                    // The API answered; the request itself is at fault
+                    circuitBreaker.recordSuccess();
+                    throw e;
+                }
+                circuitBreaker.recordFailure();
+                retryAfterMillis = e.getRetryAfterMillis();
+                failure = e;
+            } catch (IOException e) {
+                circuitBreaker.recordFailure();
+                failure = e;
+            }
+
+            if (attempt >= retryPolicy.getMaxRetries() || !circuitBreaker.allowRequest()) {
+                break;
+            }
+
+            // Gives up when the server asks to wait longer than the policy allows
+            long delayMillis = retryPolicy.nextDelayMillis(attempt, retryAfterMillis);
+            if (delayMillis == RetryPolicy.NO_RETRY) {
+                break;
+            }
+            queuedAtNanos = System.nanoTime();
+            token.sleep(delayMillis);
+        }
+
+        // Serves the stale response rather than failing, if there is one
+        T staleResult = parseStale(cache, cachedEntry, parser, token);
+        if (staleResult != null) {
+            return staleResult;
+        }
+        throw failure;
+    }
+
+    /**
+     * Makes a single request to the TMDB API, revalidating the stale cached entry if there is one
+     * and storing the response in the cache
+     * <p>
+     * The timing breakdown of the exchange is recorded in the request metrics.
+     */
+    private static <T> T exchange(URL url,
+                                  ResponseParser<T> parser,
+                                  HttpCache cache,
+                                  String cacheKey,
+                                  HttpCache.Entry cachedEntry,
+                                  final CancellationToken token,
+                                  long queuedAtNanos) throws IOException {
+
+        // Timing breakdown of the exchange; phases which are not reached stay at -1
+        long startNanos = System.nanoTime();
+        long connectNanos = -1, ttfbNanos = -1, downloadNanos = -1;
+        int statusCode = RequestMetrics.STATUS_FAILED;
+
+        // Connection from the shared client, which keeps it alive for the next request
+        TmdbClient client = getClient();
+        final HttpURLConnection urlConnection = client.open(url);
+
+        // Closes the connection when the request is cancelled, so that a blocked read returns
+        Runnable abort = new Runnable() {
+            @Override
+            public void run() {
+                urlConnection.disconnect();
+            }
+        };
+        token.register(abort);
+
+        // Sends the validators of the stale entry to make a conditional request
+        if (cachedEntry != null) {
+            if (cachedEntry.getEtag() != null) {
+                urlConnection.setRequestProperty("If-None-Match", cachedEntry.getEtag());
+            }
+            if (cachedEntry.getLastModified() != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", cachedEntry.getLastModified());
+            }
+        }
+
+        // Set once the response has been handled and the connection may be reused
+        boolean exchangeComplete = false;
+
+        // Set when the request is handed over to a new exchange, which accounts for its own
+        // cancellation
+        boolean handedOver = false;
+
+        // Length of the body announced by the server and the bytes received on the wire,
+        // recorded when the exchange is cancelled
+        long contentLength = -1;
+        CountingInputStream wireBody = null;
         try {
-            InputStream in = urlConnection.getInputStream();
+            // Connects explicitly to tell the connect time apart from the time to first byte
+            urlConnection.connect();
+            long connectedNanos = System.nanoTime();
+            connectNanos = connectedNanos - startNanos;
+
+            int responseCode = urlConnection.getResponseCode();
+            long firstByteNanos = System.nanoTime();
+            ttfbNanos = firstByteNanos - connectedNanos;
+            statusCode = responseCode;
+            long now = System.currentTimeMillis();
+
+            // The stale entry is still valid and is parsed from disk
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cachedEntry != null) {
+                exchangeComplete = true;
+                InputStream cachedBody = openCachedBody(cache, cachedEntry, token);
+                if (cachedBody != null) {
+                    try {
+                        T result = parser.parse(cachedBody);
+                        cache.updateExpiry(cachedEntry, HttpCache.computeExpiresAt(urlConnection, now));
+                        cache.recordRevalidation();
+                        return result;
+                    } finally {
+                        closeQuietly(cachedBody);
+                    }
+                }
+                // The cached body is gone; the full response is requested again
+                cache.remove(cacheKey);
+                handedOver = true;
+                return exchange(url, parser, cache, cacheKey, null, token, System.nanoTime());
+            }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                exchangeComplete = true;
+                throw new HttpStatusException(responseCode,
+                        parseRetryAfter(urlConnection, now), cacheKey);
+            }
 
-            boolean hasInput = scanner.hasNext();
-            if (hasInput) {
-                return scanner.next();
+            // The body is copied into a new cache entry while it is parsed
+            long expiresAt = HttpCache.computeExpiresAt(urlConnection, now);
+            HttpCache.Editor editor = null;
+            if (cache != null && expiresAt >= 0) {
+                try {
+                    editor = cache.edit(cacheKey);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            // A compressed body is decompressed as it is streamed into the parser;
+            // the cache stores the decompressed body
+            contentLength = urlConnection.getContentLength();
+            wireBody = new CountingInputStream(urlConnection.getInputStream());
+            boolean compressed = "gzip".equalsIgnoreCase(urlConnection.getContentEncoding());
+            ResponseBodyStream body = new ResponseBodyStream(
+                    compressed ? new GZIPInputStream(wireBody, 8192) : wireBody, editor, token);
+
+            T result;
+            try {
+                result = parser.parse(body);
+
+                // Reads whatever the parser left, completing the cache entry
+                body.drain();
+            } catch (IOException | RuntimeException e) {
+                if (body.getEditor() != null) {
+                    body.getEditor().abort();
+                }
+                throw e;
+            }
+            downloadNanos = System.nanoTime() - firstByteNanos;
+            exchangeComplete = true;
+            sTransferStats.record(TransferStats.endpointOf(url), compressed,
+                    wireBody.getByteCount(), body.getByteCount());
+
+            if (cache != null) {
+                cache.recordMiss(wireBody.getByteCount());
+                if (body.getEditor() != null) {
+                    try {
+                        body.getEditor().commit(urlConnection, expiresAt);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                } else if (expiresAt < 0) {
+                    cache.remove(cacheKey);
+                }
+            }
+            return result;
+        } catch (IOException e) {
+            // Reading from a connection closed by the cancellation fails with arbitrary errors
+            if (token.isCancelled() && !handedOver) {
+                long bytesRead = wireBody == null ? 0 : wireBody.getByteCount();
+                client.recordCancellation(contentLength, bytesRead);
+                throw new RequestCancelledException();
+            }
+            throw e;
+        } finally {
+            token.unregister(abort);
+            long wireBytes = wireBody == null ? 0 : wireBody.getByteCount();
+            sThreadWireBytes.get()[0] += wireBytes;
+            sRequestMetrics.record(TransferStats.endpointOf(url), startNanos - queuedAtNanos,
+                    connectNanos, ttfbNanos, downloadNanos, wireBytes, statusCode);
+
+            // Returns the connection to the pool instead of disconnecting it,
+            // unless the exchange failed midway
+            if (exchangeComplete) {
+                client.release(urlConnection);
             } else {
-                return null;
+                client.discard(urlConnection);
             }
+        }
+    }
+
+    /**
+     * Reads a whole response into a String, for callers which need the raw JSON Response
+     */
+    private static final ResponseParser<String> STRING_PARSER = new ResponseParser<String>() {
+        @Override
+        public String parse(InputStream in) throws IOException {
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            StringBuilder jsonResponse = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                jsonResponse.append(buffer, 0, read);
+            }
+            return jsonResponse.length() == 0 ? null : jsonResponse.toString();
+        }
+    };
+
+    /**
+     * Parses the stale cached entry, used when the API cannot be queried
+     *
+     * @return the parsed response or null if there is no usable cached entry
+     * @throws RequestCancelledException if the request was cancelled while the entry was parsed
+     */
+    private static <T> T parseStale(HttpCache cache,
+                                    HttpCache.Entry entry,
+                                    ResponseParser<T> parser,
+                                    CancellationToken token) throws RequestCancelledException {
+
+        if (entry == null) {
+            return null;
+        }
+        InputStream cachedBody = openCachedBody(cache, entry, token);
+        if (cachedBody == null) {
+            return null;
+        }
+        try {
+            T result = parser.parse(cachedBody);
+            cache.recordStaleHit();
+            return result;
+        } catch (RequestCancelledException e) {
+            // Not a failure of the cached entry
+            throw e;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
         } finally {
-            urlConnection.disconnect();
+            closeQuietly(cachedBody);
+        }
+    }
+
+    /**
+     * Reads the delay requested by the server through the Retry-After header, which holds
+     * either a number of seconds or a date
+     *
+     * @return the delay in milliseconds, or -1 if none was requested
+     */
+    private static long parseRetryAfter(HttpURLConnection urlConnection, long now) {
+
+        String retryAfter = urlConnection.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            long retryAt = urlConnection.getHeaderFieldDate("Retry-After", -1);
+            return retryAt < 0 ? -1 : Math.max(0, retryAt - now);
+        }
+    }
+
+    /**
+     * Opens the body of a cached entry
+     *
+     * @return stream over the cached JSON Response, which stops when the token is cancelled,
+     * or null if the body could not be opened
+     */
+    private static InputStream openCachedBody(HttpCache cache,
+                                              HttpCache.Entry entry,
+                                              CancellationToken token) {
+        try {
+            return new ResponseBodyStream(new BufferedInputStream(cache.openBody(entry)), null, token);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with a stream which could not be closed
         }
     }
 }
@@ -0,0 +1,128 @@
+package com.example.android.popularflicks.utilites;
+
+/**
+ * Client side token bucket which keeps the requests made to the TMDB API within its quota
+ * <p>
+ * The bucket holds up to capacity tokens and is refilled at a constant rate. Every request
+ * takes one token; when the bucket is empty the request waits until its token is refilled
+ * instead of being rejected by the server with a 429.
+ */
+
+public final class RateLimiter {
+
+    // Default burst size, matching TMDB's quota of 40 requests per 10 seconds
+    public static final int DEFAULT_CAPACITY = 40;
+
+    // Default sustained rate, matching TMDB's quota of 40 requests per 10 seconds
+    public static final double DEFAULT_PERMITS_PER_SECOND = 4.0;
+
+    private final int mCapacity;
+    private final double mPermitsPerSecond;
+
+    // Tokens left in the bucket; negative when requests are waiting for refills
+    private double mTokens;
+
+    // Time of the last refill
+    private long mLastRefillNanos;
+
+    // Number of requests which were let through
+    private int mPermitCount;
+
+    // Number of requests which had to wait for a token
+    private int mThrottledCount;
+
+    // Total time requests waited for tokens
+    private long mTotalWaitMillis;
+
+    /**
+     * Creates a limiter with TMDB's default quota
+     */
+    public RateLimiter() {
+        this(DEFAULT_CAPACITY, DEFAULT_PERMITS_PER_SECOND);
+    }
+
+    /**
+     * @param capacity         maximum number of requests which may be made in a burst
+     * @param permitsPerSecond sustained number of requests per second
+     */
+    public RateLimiter(int capacity, double permitsPerSecond) {
+        mCapacity = capacity;
+        mPermitsPerSecond = permitsPerSecond;
+        mTokens = capacity;
+        mLastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a token for a request, waiting until one is available unless the request is
+     * cancelled first, in which case the token is given back
+     *
+     * @param token cancellation token of the request
+     * @return the time waited in milliseconds
+     * @throws RequestCancelledException if the request is cancelled while waiting
+     */
+    public long acquire(CancellationToken token) throws RequestCancelledException {
+
+        long waitMillis;
+        synchronized (this) {
+            refill();
+            mTokens -= 1;
+            mPermitCount++;
+            waitMillis = mTokens >= 0 ? 0 : (long) Math.ceil(-mTokens / mPermitsPerSecond * 1000);
+            if (waitMillis > 0) {
+                mThrottledCount++;
+                mTotalWaitMillis += waitMillis;
+            }
+        }
+
+        if (waitMillis > 0) {
+            try {
+                token.sleep(waitMillis);
+            } catch (RequestCancelledException e) {
+                // The request is not made, so its token is left for the next one
+                synchronized (this) {
+                    mTokens += 1;
+                    mPermitCount--;
+                }
+                throw e;
+            }
+        }
+        return waitMillis;
+    }
+
+    /**
+     * @return number of requests which were let through
+     */
+    public synchronized int getPermitCount() {
+        return mPermitCount;
+    }
+
+    /**
+     * @return number of requests which had to wait for a token
+     */
+    public synchronized int getThrottledCount() {
+        return mThrottledCount;
+    }
+
+    /**
+     * @return total time requests waited for tokens, in milliseconds
+     */
+    public synchronized long getTotalWaitMillis() {
+        return mTotalWaitMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RateLimiter[capacity=" + mCapacity
+                + ", permitsPerSecond=" + mPermitsPerSecond
+                + ", permits=" + mPermitCount
+                + ", throttled=" + mThrottledCount
+                + ", waited=" + mTotalWaitMillis + "ms]";
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double refilled = (now - mLastRefillNanos) / 1e9 * mPermitsPerSecond;
+        mTokens = Math.min(mCapacity, mTokens + refilled);
+        mLastRefillNanos = now;
+    }
+}
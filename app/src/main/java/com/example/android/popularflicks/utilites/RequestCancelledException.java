@@ -0,0 +1,14 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a request stops because its {@link CancellationToken} was cancelled
+ */
+
+public class RequestCancelledException extends InterruptedIOException {
+
+    public RequestCancelledException() {
+        super("Request cancelled");
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the timing breakdown of every exchange with the TMDB API into per-endpoint latency
+ * histograms, to tell slow networks apart from slow parsing and binding
+ * <p>
+ * Each exchange records its queue wait (rate limiting and retry backoff), connect (DNS, TCP
+ * and TLS, or nothing on a pooled connection), time to first byte, body download (which
+ * includes streaming parsing), bytes received and status code. Histograms have power-of-two
+ * millisecond buckets, so recording costs a few array increments and the metrics can stay on
+ * in production builds.
+ * <p>
+ * Requests abandoned after a client-side timeout are counted per endpoint, and the time until
+ * each section of a screen was displayed is recorded per section, to compare the latency seen
+ * by the user with the latency of the exchanges behind it.
+ */
+
+public final class RequestMetrics {
+
+    // Phases of an exchange, in the order in which they happen
+    private static final String[] PHASES = {"queue", "connect", "ttfb", "download", "total"};
+    private static final int QUEUE = 0, CONNECT = 1, TTFB = 2, DOWNLOAD = 3, TOTAL = 4;
+
+    // Status recorded for exchanges which failed before a status code was received
+    public static final int STATUS_FAILED = -1;
+
+    // Metrics by endpoint, sorted by endpoint
+    private final TreeMap<String, Endpoint> mEndpoints = new TreeMap<>();
+
+    // Display latencies by section, sorted by section
+    private final TreeMap<String, Section> mSections = new TreeMap<>();
+
+    /**
+     * Records the breakdown of an exchange; phases which were not reached are -1
+     *
+     * @param endpoint       endpoint of the request, see {@link TransferStats#endpointOf}
+     * @param queueNanos     time between the request becoming due and the exchange starting
+     * @param connectNanos   time to connect, or -1
+     * @param ttfbNanos      time between connecting and receiving the status line, or -1
+     * @param downloadNanos  time to receive and parse the body, or -1
+     * @param wireBytes      number of body bytes received on the wire
+     * @param statusCode     status code of the response, or STATUS_FAILED
+     */
+    public void record(String endpoint,
+                       long queueNanos,
+                       long connectNanos,
+                       long ttfbNanos,
+                       long downloadNanos,
+                       long wireBytes,
+                       int statusCode) {
+
+        long totalNanos = Math.max(0, queueNanos) + Math.max(0, connectNanos)
+                + Math.max(0, ttfbNanos) + Math.max(0, downloadNanos);
+        synchronized (this) {
+            Endpoint metrics = getEndpoint(endpoint);
+            metrics.mHistograms[QUEUE].record(queueNanos);
+            metrics.mHistograms[CONNECT].record(connectNanos);
+            metrics.mHistograms[TTFB].record(ttfbNanos);
+            metrics.mHistograms[DOWNLOAD].record(downloadNanos);
+            metrics.mHistograms[TOTAL].record(totalNanos);
+            metrics.mBytes += wireBytes;
+            Integer count = metrics.mStatusCounts.get(statusCode);
+            metrics.mStatusCounts.put(statusCode, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Records a request which was abandoned because it did not complete in time
+     *
+     * @param endpoint endpoint of the request, see {@link TransferStats#endpointOf}
+     */
+    public synchronized void recordTimeout(String endpoint) {
+        getEndpoint(endpoint).mTimeoutCount++;
+    }
+
+    /**
+     * Records the time between a screen requesting a section and the section being displayed,
+     * or given up on
+     *
+     * @param section name of the section, e.g. "details/reviews"
+     * @param nanos   time until the section was displayed or given up on
+     * @param loaded  whether the section was loaded
+     */
+    public synchronized void recordSection(String section, long nanos, boolean loaded) {
+        Section metrics = mSections.get(section);
+        if (metrics == null) {
+            metrics = new Section();
+            mSections.put(section, metrics);
+        }
+        metrics.mHistogram.record(nanos);
+        if (!loaded) {
+            metrics.mFailedCount++;
+        }
+    }
+
+    /**
+     * @param endpoint endpoint of the requests
+     * @return number of exchanges recorded for the endpoint
+     */
+    public synchronized int getCount(String endpoint) {
+        Endpoint metrics = mEndpoints.get(endpoint);
+        return metrics == null ? 0 : metrics.mHistograms[TOTAL].mCount;
+    }
+
+    /**
+     * Drops all recorded metrics
+     */
+    public synchronized void reset() {
+        mEndpoints.clear();
+        mSections.clear();
+    }
+
+    /**
+     * Prints the histograms of every endpoint, with the count, mean, median, 90th and 99th
+     * percentiles and maximum of each phase in milliseconds
+     *
+     * @param prefix prefix of every line
+     * @param writer the writer receiving the output
+     */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+
+        if (mEndpoints.isEmpty() && mSections.isEmpty()) {
+            writer.println(prefix + "No requests recorded");
+            return;
+        }
+        for (Map.Entry<String, Endpoint> entry : mEndpoints.entrySet()) {
+            Endpoint metrics = entry.getValue();
+            writer.println(prefix + entry.getKey() + ": bytes=" + metrics.mBytes
+                    + " status=" + metrics.mStatusCounts
+                    + " timeouts=" + metrics.mTimeoutCount);
+            writer.println(prefix + String.format(Locale.US, "  %-8s %6s %8s %6s %6s %6s %6s",
+                    "phase", "count", "mean", "p50", "p90", "p99", "max"));
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                Histogram histogram = metrics.mHistograms[phase];
+                writer.println(prefix + String.format(Locale.US,
+                        "  %-8s %6d %8.1f %6d %6d %6d %6d",
+                        PHASES[phase], histogram.mCount, histogram.getMeanMillis(),
+                        histogram.getPercentileMillis(0.5), histogram.getPercentileMillis(0.9),
+                        histogram.getPercentileMillis(0.99), histogram.mMaxMillis));
+            }
+        }
+        if (mSections.isEmpty()) {
+            return;
+        }
+        writer.println(prefix + "Displayed sections:");
+        writer.println(prefix + String.format(Locale.US, "  %-20s %6s %6s %8s %6s %6s %6s %6s",
+                "section", "count", "failed", "mean", "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, Section> entry : mSections.entrySet()) {
+            Histogram histogram = entry.getValue().mHistogram;
+            writer.println(prefix + String.format(Locale.US,
+                    "  %-20s %6d %6d %8.1f %6d %6d %6d %6d",
+                    entry.getKey(), histogram.mCount, entry.getValue().mFailedCount,
+                    histogram.getMeanMillis(), histogram.getPercentileMillis(0.5),
+                    histogram.getPercentileMillis(0.9), histogram.getPercentileMillis(0.99),
+                    histogram.mMaxMillis));
+        }
+    }
+
+    /**
+     * @return metrics of the endpoint, created on first use
+     */
+    private Endpoint getEndpoint(String endpoint) {
+        Endpoint metrics = mEndpoints.get(endpoint);
+        if (metrics == null) {
+            metrics = new Endpoint();
+            mEndpoints.put(endpoint, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Metrics of one endpoint
+     */
+    private static final class Endpoint {
+
+        private final Histogram[] mHistograms = new Histogram[PHASES.length];
+
+        // Number of exchanges by status code
+        private final TreeMap<Integer, Integer> mStatusCounts = new TreeMap<>();
+
+        // Number of body bytes received on the wire
+        private long mBytes;
+
+        // Number of requests abandoned after a timeout
+        private int mTimeoutCount;
+
+        private Endpoint() {
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                mHistograms[phase] = new Histogram();
+            }
+        }
+    }
+
+    /**
+     * Display latencies of one section
+     */
+    private static final class Section {
+
+        private final Histogram mHistogram = new Histogram();
+
+        // Number of times the section could not be loaded
+        private int mFailedCount;
+    }
+
+    /**
+     * Latency histogram whose bucket i counts durations below 2^i milliseconds
+     */
+    private static final class Histogram {
+
+        // The last bucket counts everything from 2^(BUCKET_COUNT - 2) milliseconds up
+        private static final int BUCKET_COUNT = 18;
+
+        private final int[] mBuckets = new int[BUCKET_COUNT];
+        private int mCount;
+        private long mSumMillis;
+        private long mMaxMillis;
+
+        /**
+         * Records a duration, ignoring phases which were not reached
+         */
+        private void record(long nanos) {
+            if (nanos < 0) {
+                return;
+            }
+            long millis = nanos / 1000000;
+            int bucket = millis == 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+            mBuckets[Math.min(bucket, BUCKET_COUNT - 1)]++;
+            mCount++;
+            mSumMillis += millis;
+            mMaxMillis = Math.max(mMaxMillis, millis);
+        }
+
+        private double getMeanMillis() {
+            return mCount == 0 ? 0 : (double) mSumMillis / mCount;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the percentile, capped by the maximum
+         */
+        private long getPercentileMillis(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * mCount);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                seen += mBuckets[bucket];
+                if (seen >= rank) {
+                    return Math.min(1L << bucket, mMaxMillis);
+                }
+            }
+            return mMaxMillis;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream over the body of a network response which counts the bytes read from it
+ * and copies them into a response cache entry while the body is being parsed
+ * <p>
+ * Every read first checks the cancellation token, so that a parser reading the body
+ * stops at its next read once the request is cancelled.
+ */
+final class ResponseBodyStream extends FilterInputStream {
+
+    // Editor of the cache entry receiving the body; null if the body is not cached
+    private HttpCache.Editor mEditor;
+
+    // Cancels the request the body belongs to
+    private final CancellationToken mToken;
+
+    // Number of bytes read from the body
+    private long mByteCount;
+
+    /**
+     * @param in     the body of the response
+     * @param editor editor of the cache entry receiving the body, or null
+     * @param token  cancels the request the body belongs to
+     */
+    ResponseBodyStream(InputStream in, HttpCache.Editor editor, CancellationToken token) {
+        super(in);
+        mEditor = editor;
+        mToken = token;
+    }
+
+    @Override
+    public int read() throws IOException {
+        mToken.throwIfCancelled();
+        int value = super.read();
+        if (value != -1) {
+            copy(new byte[]{(byte) value}, 0, 1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        mToken.throwIfCancelled();
+        int read = super.read(buffer, offset, count);
+        if (read > 0) {
+            copy(buffer, offset, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        // Skipped bytes still have to reach the cache entry
+        byte[] buffer = new byte[(int) Math.min(count, 4096)];
+        long skipped = 0;
+        while (skipped < count) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Reads the rest of the body, so that the cache entry is complete
+     * and the connection can be reused
+     */
+    void drain() throws IOException {
+        byte[] buffer = new byte[4096];
+        //noinspection StatementWithEmptyBody
+        while (read(buffer, 0, buffer.length) != -1) {
+            // Bytes are counted and copied by read
+        }
+    }
+
+    /**
+     * @return number of bytes read from the body
+     */
+    long getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * @return editor of the cache entry receiving the body, or null if it is not cached
+     */
+    HttpCache.Editor getEditor() {
+        return mEditor;
+    }
+
+    private void copy(byte[] buffer, int offset, int count) {
+        mByteCount += count;
+        if (mEditor != null) {
+            try {
+                mEditor.write(buffer, offset, count);
+            } catch (IOException e) {
+                // A failing cache write must not fail the request
+                e.printStackTrace();
+                mEditor.abort();
+                mEditor = null;
+            }
+        }
+    }
+}
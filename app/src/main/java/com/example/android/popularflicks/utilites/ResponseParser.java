@@ -0,0 +1,22 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Converts the body of a response received from the TMDB API into usable data
+ * while it is being read, without holding the whole body in memory
+ *
+ * @param <T> type of the data obtained from the response
+ */
+public interface ResponseParser<T> {
+
+    /**
+     * Parses the body of a response
+     *
+     * @param in stream over the body of the response; closed by the caller
+     * @return the data obtained from the response
+     * @throws IOException in case the body cannot be read or is not correctly formatted
+     */
+    T parse(InputStream in) throws IOException;
+}
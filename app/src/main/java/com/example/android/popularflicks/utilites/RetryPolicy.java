@@ -0,0 +1,133 @@
+package com.example.android.popularflicks.utilites;
+
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed request to the TMDB API is retried
+ * <p>
+ * Requests failing with a network error, a 429 or a 5xx response are retried with exponential
+ * backoff and full jitter, so that clients failing together do not retry together. A delay
+ * requested by the server through Retry-After is honoured up to the maximum delay; a request
+ * asked to wait longer is not retried at all, so that it fails or falls back to the stale
+ * response instead of blocking its thread.
+ */
+
+public final class RetryPolicy {
+
+    // Default number of retries after the first attempt
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    // Default upper bound of the delay before the first retry
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+
+    // Default upper bound of the delay before any retry
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 8 * 1000;
+
+    // Returned by nextDelayMillis when the request must not be retried
+    public static final long NO_RETRY = -1;
+
+    // Status code of a response rejected because of the rate limit
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int mMaxRetries;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom = new Random();
+
+    // Number of retries made
+    private int mRetryCount;
+
+    // Number of retries which waited for the delay requested by Retry-After
+    private int mRetryAfterCount;
+
+    // Number of retries given up because Retry-After asked for more than the maximum delay
+    private int mRetryAfterExceededCount;
+
+    /**
+     * Creates a policy with the default number of retries and delays
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param maxRetries      number of retries after the first attempt
+     * @param baseDelayMillis upper bound of the delay before the first retry
+     * @param maxDelayMillis  upper bound of the delay before any retry
+     */
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        mMaxRetries = maxRetries;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return number of retries after the first attempt
+     */
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * @param responseCode status code of the response
+     * @return true if a request failing with the status code may succeed when retried
+     */
+    public static boolean isRetryable(int responseCode) {
+        return responseCode == HTTP_TOO_MANY_REQUESTS || responseCode >= 500;
+    }
+
+    /**
+     * Computes the delay before a retry and records it
+     *
+     * @param attempt          number of the failed attempt, starting from 0
+     * @param retryAfterMillis delay requested by the server, or -1 if none
+     * @return the delay in milliseconds, or {@link #NO_RETRY} if the server asked for a delay
+     * longer than the maximum, in which case the retries are exhausted
+     */
+    public synchronized long nextDelayMillis(int attempt, long retryAfterMillis) {
+
+        if (retryAfterMillis > mMaxDelayMillis) {
+            mRetryAfterExceededCount++;
+            return NO_RETRY;
+        }
+        mRetryCount++;
+        if (retryAfterMillis >= 0) {
+            mRetryAfterCount++;
+            return retryAfterMillis;
+        }
+        long ceiling = Math.min(mMaxDelayMillis, mBaseDelayMillis << Math.min(attempt, 16));
+        return (long) (mRandom.nextDouble() * ceiling);
+    }
+
+    /**
+     * @return number of retries made
+     */
+    public synchronized int getRetryCount() {
+        return mRetryCount;
+    }
+
+    /**
+     * @return number of retries which waited for the delay requested by Retry-After
+     */
+    public synchronized int getRetryAfterCount() {
+        return mRetryAfterCount;
+    }
+
+    /**
+     * @return number of retries given up because Retry-After asked for more than the maximum
+     * delay
+     */
+    public synchronized int getRetryAfterExceededCount() {
+        return mRetryAfterExceededCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RetryPolicy[maxRetries=" + mMaxRetries
+                + ", baseDelay=" + mBaseDelayMillis + "ms"
+                + ", maxDelay=" + mMaxDelayMillis + "ms"
+                + ", retries=" + mRetryCount
+                + ", retryAfter=" + mRetryAfterCount
+                + ", retryAfterExceeded=" + mRetryAfterExceededCount + "]";
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+
+/**
+ * Collapses concurrent identical requests into one
+ * <p>
+ * The first caller for a key runs the request; callers arriving with the same key while it is
+ * in flight wait for it and receive the same result or exception instead of running the
+ * request again. Results are shared, so callers must copy them before modifying them.
+ * The request itself is cancelled only once all of its callers have cancelled.
+ */
+
+public final class SingleFlight {
+
+    // Requests in flight, by key
+    private final HashMap<String, Call> mCalls = new HashMap<>();
+
+    // Number of requests which were run
+    private int mExecutedCount;
+
+    // Number of requests which joined a request already in flight instead of being run
+    private int mCollapsedCount;
+
+    /**
+     * Runs the request for the key, or waits for the identical request already in flight
+     * <p>
+     * A caller whose token is cancelled stops waiting at once, but the shared request is only
+     * cancelled once every one of its callers has cancelled.
+     *
+     * @param key     identifies identical requests
+     * @param token   cancels the call, or null if it is never cancelled
+     * @param request the request to be run if none is in flight for the key
+     * @param <T>     type of the result of the request
+     * @return the result of the request
+     * @throws IOException if the request failed
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, CancellationToken token, Request<T> request) throws IOException {
+
+        final Call call;
+        boolean isLeader = false;
+        synchronized (this) {
+            Call inFlight = mCalls.get(key);
+
+            // A request cancelled by all of its callers is not joined but replaced
+            if (inFlight == null || inFlight.mCancelledCount == inFlight.mCallerCount) {
+                call = new Call();
+                mCalls.put(key, call);
+                mExecutedCount++;
+                isLeader = true;
+            } else {
+                call = inFlight;
+                mCollapsedCount++;
+            }
+            call.mCallerCount++;
+        }
+
+        // Cancels the shared request once the last of its callers cancels, and wakes this
+        // caller if it is waiting for the request
+        Runnable onCancel = new Runnable() {
+            @Override
+            public void run() {
+                boolean cancelRequest;
+                synchronized (SingleFlight.this) {
+                    call.mCancelledCount++;
+                    cancelRequest = call.mCancelledCount == call.mCallerCount;
+                }
+                if (cancelRequest) {
+                    call.mToken.cancel();
+                }
+                synchronized (call) {
+                    call.notifyAll();
+                }
+            }
+        };
+        if (token != null) {
+            token.register(onCancel);
+        }
+
+        try {
+            if (isLeader) {
+                try {
+                    call.mResult = request.call(call.mToken);
+                } catch (IOException | RuntimeException e) {
+                    call.mException = e;
+                } finally {
+                    synchronized (this) {
+                        if (mCalls.get(key) == call) {
+                            mCalls.remove(key);
+                        }
+                    }
+                    synchronized (call) {
+                        call.mDone = true;
+                        call.notifyAll();
+                    }
+                }
+            } else {
+                synchronized (call) {
+                    while (!call.mDone) {
+                        if (token != null) {
+                            token.throwIfCancelled();
+                        }
+                        try {
+                            call.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while waiting for " + key);
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (token != null) {
+                token.unregister(onCancel);
+            }
+        }
+
+        if (call.mException instanceof IOException) {
+            throw (IOException) call.mException;
+        } else if (call.mException != null) {
+            throw (RuntimeException) call.mException;
+        }
+        return (T) call.mResult;
+    }
+
+    /**
+     * @return number of requests which were run
+     */
+    public synchronized int getExecutedCount() {
+        return mExecutedCount;
+    }
+
+    /**
+     * @return number of requests which joined an identical request in flight instead of being run
+     */
+    public synchronized int getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SingleFlight[executed=" + mExecutedCount
+                + ", collapsed=" + mCollapsedCount
+                + ", inFlight=" + mCalls.size() + "]";
+    }
+
+    /**
+     * A request in flight, shared by all of its callers
+     */
+    private static final class Call {
+
+        // Cancels the request once all of its callers have cancelled
+        private final CancellationToken mToken = new CancellationToken();
+
+        // Number of callers sharing the request, and how many of them cancelled;
+        // guarded by the SingleFlight
+        private int mCallerCount;
+        private int mCancelledCount;
+
+        // Set once the request has completed; guarded by the Call
+        private boolean mDone;
+
+        // Result or exception of the request; safely published by mDone
+        private Object mResult;
+        private Exception mException;
+    }
+
+    /**
+     * A request which can be shared by several callers
+     *
+     * @param <T> type of the result of the request
+     */
+    public interface Request<T> {
+
+        /**
+         * Runs the request
+         *
+         * @param token cancelled once every caller sharing the request has cancelled
+         * @return the result of the request
+         * @throws IOException if the request failed
+         */
+        T call(CancellationToken token) throws IOException;
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.android.popularflicks.utilites;
+
+import android.os.Process;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * App wide scheduler running background work on separate bounded pools for network requests,
+ * disk access and CPU bound work, so that a slow request never holds up a database query
+ * <p>
+ * Each pool runs a fixed maximum number of threads and queues the tasks submitted beyond that
+ * by priority, tasks for what is on screen first and prefetches last, and in submission order
+ * within a priority. Tasks can be cancelled: a queued task is removed from its queue, and a
+ * running task sees its cancellation token cancelled. Every pool counts its tasks and
+ * measures how long they waited in its queue.
+ */
+
+public final class TaskScheduler {
+
+    // Pools to which the tasks are submitted
+    public static final int POOL_NETWORK = 0;
+    public static final int POOL_DISK = 1;
+    public static final int POOL_CPU = 2;
+    private static final String[] POOL_NAMES = {"network", "disk", "cpu"};
+
+    // Priorities of the tasks; queued tasks with a higher priority run first
+    public static final int PRIORITY_PREFETCH = 0;
+    public static final int PRIORITY_BACKGROUND = 1;
+    public static final int PRIORITY_VISIBLE = 2;
+
+    // Default number of threads running requests; one less than the keep-alive pool of the
+    // TmdbClient, so that every request finds a warm connection
+    public static final int DEFAULT_NETWORK_THREADS = 4;
+
+    // Default number of threads accessing the disk, which gains little from more
+    public static final int DEFAULT_DISK_THREADS = 2;
+
+    // Default number of threads for CPU bound work, leaving a core for the main thread
+    public static final int DEFAULT_CPU_THREADS =
+            Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+
+    // Time after which an idle thread ends
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static TaskScheduler sInstance;
+
+    private final Pool[] mPools;
+
+    // Orders the tasks of the same priority by submission
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Work run by a task
+     */
+    public interface Job {
+
+        /**
+         * Runs the work on a thread of the pool
+         *
+         * @param token cancelled when the task is cancelled
+         */
+        void run(CancellationToken token);
+    }
+
+    /**
+     * @return the scheduler shared by the whole app, created with the default pool sizes
+     */
+    public static synchronized TaskScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new TaskScheduler(DEFAULT_NETWORK_THREADS,
+                    DEFAULT_DISK_THREADS,
+                    DEFAULT_CPU_THREADS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param networkThreads maximum number of tasks running network requests at a time
+     * @param diskThreads    maximum number of tasks accessing the disk at a time
+     * @param cpuThreads     maximum number of CPU bound tasks running at a time
+     */
+    public TaskScheduler(int networkThreads, int diskThreads, int cpuThreads) {
+        mPools = new Pool[]{
+                new Pool(POOL_NAMES[POOL_NETWORK], networkThreads),
+                new Pool(POOL_NAMES[POOL_DISK], diskThreads),
+                new Pool(POOL_NAMES[POOL_CPU], cpuThreads)};
+    }
+
+    /**
+     * Queues a job on a pool
+     *
+     * @param pool     one of the POOL constants
+     * @param priority one of the PRIORITY constants
+     * @param job      the work to be run
+     * @return the task running the job, through which it can be cancelled
+     */
+    public Task submit(int pool, int priority, Job job) {
+
+        Task task = new Task(mPools[pool], priority, mSequence.getAndIncrement(), job);
+        mPools[pool].submit(task);
+        return task;
+    }
+
+    /**
+     * @param pool one of the POOL constants
+     * @return number of tasks waiting in the queue of the pool
+     */
+    public int getQueueDepth(int pool) {
+        return mPools[pool].mExecutor.getQueue().size();
+    }
+
+    /**
+     * @param pool one of the POOL constants
+     * @return largest number of tasks which waited in the queue of the pool at a time
+     */
+    public int getMaxQueueDepth(int pool) {
+        return mPools[pool].mMaxQueueDepth.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("TaskScheduler[");
+        for (int pool = 0; pool < mPools.length; pool++) {
+            if (pool > 0) {
+                builder.append("; ");
+            }
+            builder.append(mPools[pool]);
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * A job queued or running on a pool
+     */
+    public static final class Task implements Runnable, Comparable<Task> {
+
+        private final Pool mPool;
+        private final int mPriority;
+        private final long mSequence;
+        private final Job mJob;
+        private final CancellationToken mToken = new CancellationToken();
+        private final long mSubmittedAtNanos = System.nanoTime();
+
+        private Task(Pool pool, int priority, long sequence, Job job) {
+            mPool = pool;
+            mPriority = priority;
+            mSequence = sequence;
+            mJob = job;
+        }
+
+        /**
+         * Cancels the task, removing it from the queue if it has not started running
+         *
+         * @return true if the task was removed from the queue and its job will never run
+         */
+        public boolean cancel() {
+            mToken.cancel();
+            if (mPool.mExecutor.remove(this)) {
+                mPool.mCancelledCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return true if the task was cancelled
+         */
+        public boolean isCancelled() {
+            return mToken.isCancelled();
+        }
+
+        @Override
+        public void run() {
+
+            mPool.recordStart(System.nanoTime() - mSubmittedAtNanos);
+            try {
+                // A task cancelled after leaving the queue still runs its job, which sees its
+                // token cancelled and stops at once
+                if (mToken.isCancelled()) {
+                    mPool.mCancelledCount.incrementAndGet();
+                }
+                mJob.run(mToken);
+            } catch (RuntimeException e) {
+                // Keeps the thread of the pool alive for the next task
+                e.printStackTrace();
+            } finally {
+                mPool.mCompletedCount.incrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * A bounded pool of threads with its priority queue and metrics
+     */
+    private static final class Pool {
+
+        private final String mName;
+        private final int mThreads;
+        private final ThreadPoolExecutor mExecutor;
+
+        private final AtomicInteger mSubmittedCount = new AtomicInteger();
+        private final AtomicInteger mStartedCount = new AtomicInteger();
+        private final AtomicInteger mCompletedCount = new AtomicInteger();
+        private final AtomicInteger mCancelledCount = new AtomicInteger();
+        private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+        // Total and longest time which the started tasks waited in the queue
+        private final AtomicLong mQueueWaitNanos = new AtomicLong();
+        private final AtomicLong mMaxQueueWaitNanos = new AtomicLong();
+
+        private Pool(final String name, int threads) {
+
+            mName = name;
+            mThreads = threads;
+            mExecutor = new ThreadPoolExecutor(threads, threads,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    // Keeps the background work from competing with the UI
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    runnable.run();
+                                }
+                            }, "TaskScheduler-" + name + "-" + mCount.incrementAndGet());
+                        }
+                    });
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        private void submit(Task task) {
+
+            mSubmittedCount.incrementAndGet();
+            mExecutor.execute(task);
+
+            int depth = mExecutor.getQueue().size();
+            int maxDepth;
+            while (depth > (maxDepth = mMaxQueueDepth.get())
+                    && !mMaxQueueDepth.compareAndSet(maxDepth, depth)) {
+                // Retries until the maximum is updated or exceeded by another thread
+            }
+        }
+
+        private void recordStart(long queueWaitNanos) {
+
+            mStartedCount.incrementAndGet();
+            mQueueWaitNanos.addAndGet(queueWaitNanos);
+            long maxWait;
+            while (queueWaitNanos > (maxWait = mMaxQueueWaitNanos.get())
+                    && !mMaxQueueWaitNanos.compareAndSet(maxWait, queueWaitNanos)) {
+                // Retries until the maximum is updated or exceeded by another thread
+            }
+        }
+
+        @Override
+        public String toString() {
+            int started = mStartedCount.get();
+            return mName + ": threads=" + mExecutor.getActiveCount() + "/" + mThreads
+                    + ", queued=" + mExecutor.getQueue().size()
+                    + ", maxQueued=" + mMaxQueueDepth.get()
+                    + ", submitted=" + mSubmittedCount.get()
+                    + ", completed=" + mCompletedCount.get()
+                    + ", cancelled=" + mCancelledCount.get()
+                    + ", meanWait=" + (started == 0 ? 0
+                    : mQueueWaitNanos.get() / started / 1000000) + "ms"
+                    + ", maxWait=" + mMaxQueueWaitNanos.get() / 1000000 + "ms";
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Shared HTTP client used by {@link QueryUtils} for all the requests made to the TMDB API
+ * <p>
+ * Connections are opened with the configured timeouts and are never disconnected after a
+ * successful exchange. Instead their body is consumed and closed so that the platform returns
+ * the socket to its keep-alive pool and the next request to the same host skips the TCP and
+ * TLS handshakes. The pool itself is owned by the platform and shared by the whole process; its
+ * size and idle timeout are set once through {@link #configureConnectionPool}. The platform
+ * does not tell whether a request found a warm connection, so the client only counts what it
+ * sees itself: the requests, and the connections it closed instead of returning to the pool.
+ */
+
+public final class TmdbClient {
+
+    // Default maximum number of idle connections kept alive
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+
+    // Default time after which an idle connection is closed
+    public static final long DEFAULT_KEEP_ALIVE_DURATION_MILLIS = 5 * 60 * 1000;
+
+    // Default timeout for establishing a connection
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+    // Default timeout for reading from an established connection
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 15 * 1000;
+
+    // Maximum number of unread bytes drained from a response so its connection can be reused
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    // Opens real connections through the platform
+    private static final Transport NETWORK_TRANSPORT = new Transport() {
+        @Override
+        public HttpURLConnection open(URL url) throws IOException {
+            return (HttpURLConnection) url.openConnection();
+        }
+    };
+
+    // Whether the platform connection pool was configured, which only the first call may do
+    private static boolean sPoolConfigured;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    // Opens the connections; the network unless requests are recorded or replayed
+    private volatile Transport mTransport = NETWORK_TRANSPORT;
+
+    // Number of requests made through the client
+    private int mRequestCount;
+
+    // Number of connections which were closed instead of being returned to the pool
+    private int mDiscardCount;
+
+    // Number of exchanges which were cancelled midway
+    private int mCancelCount;
+
+    // Number of bytes of the announced Content-Length which cancelled exchanges did not read;
+    // a gzipped body is sent without a length, so its cancellations are counted apart
+    private long mCancelledAnnouncedBytesNotRead;
+
+    // Number of cancelled exchanges whose body length was not announced
+    private int mCancelledUnknownLengthCount;
+
+    /**
+     * Configures the keep-alive pool of the platform, which is shared by every HTTP connection
+     * of the process and not only by the clients; should be called once, before the first
+     * connection is opened, e.g. from the Application
+     * <p>
+     * The settings are system properties read by the platform when its pool is first used, so
+     * later calls have no effect and are ignored.
+     *
+     * @param maxIdleConnections      maximum number of idle connections kept alive
+     * @param keepAliveDurationMillis time after which an idle connection is closed
+     * @return false if the pool was already configured by an earlier call
+     */
+    public static synchronized boolean configureConnectionPool(int maxIdleConnections,
+                                                               long keepAliveDurationMillis) {
+        if (sPoolConfigured) {
+            return false;
+        }
+        sPoolConfigured = true;
+        System.setProperty("http.keepAlive", maxIdleConnections > 0 ? "true" : "false");
+        System.setProperty("http.maxConnections", String.valueOf(maxIdleConnections));
+        System.setProperty("http.keepAliveDuration", String.valueOf(keepAliveDurationMillis));
+        return true;
+    }
+
+    /**
+     * Creates a client with the default timeouts
+     */
+    public TmdbClient() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param connectTimeoutMillis timeout for establishing a connection
+     * @param readTimeoutMillis    timeout for reading from an established connection
+     */
+    public TmdbClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Sets the transport through which connections are opened, e.g. one of the test transports
+     * recording the responses to fixture files or replaying them
+     *
+     * @param transport the transport, or null to use the network
+     */
+    public void setTransport(Transport transport) {
+        mTransport = transport == null ? NETWORK_TRANSPORT : transport;
+    }
+
+    /**
+     * Opens a connection for a GET request to the URL
+     *
+     * @param url the URL to be queried
+     * @return the connection, which must be handed back through release or discard, and whose
+     * body must be decompressed if its Content-Encoding is gzip
+     * @throws IOException if the connection cannot be opened
+     */
+    public HttpURLConnection open(URL url) throws IOException {
+
+        HttpURLConnection urlConnection = mTransport.open(url);
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+
+        // Caching is handled by the response cache and not by the platform
+        urlConnection.setUseCaches(false);
+
+        // Asks for a compressed body; setting the header explicitly turns off the platform's
+        // transparent decompression, so the caller decompresses while reading the body
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+
+        synchronized (this) {
+            mRequestCount++;
+        }
+        return urlConnection;
+    }
+
+    /**
+     * Finishes an exchange whose response was handled, returning the connection to the pool
+     * <p>
+     * Any unread part of the body is drained first, as only a fully consumed response
+     * leaves its connection reusable.
+     *
+     * @param urlConnection the connection opened through open
+     */
+    public void release(HttpURLConnection urlConnection) {
+
+        InputStream in = null;
+        try {
+            try {
+                in = urlConnection.getInputStream();
+            } catch (IOException e) {
+                // Error responses carry their body on the error stream
+                in = urlConnection.getErrorStream();
+            }
+            if (in != null) {
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = in.read(buffer)) != -1) {
+                    drained += read;
+                }
+                if (drained >= MAX_DRAIN_BYTES) {
+                    // Not worth reading the rest of the body just to keep the connection
+                    discard(urlConnection);
+                    return;
+                }
+                in.close();
+            }
+        } catch (IOException e) {
+            discard(urlConnection);
+        }
+    }
+
+    /**
+     * Closes the connection of an exchange which failed, so it is never reused
+     *
+     * @param urlConnection the connection opened through open
+     */
+    public void discard(HttpURLConnection urlConnection) {
+        urlConnection.disconnect();
+        synchronized (this) {
+            mDiscardCount++;
+        }
+    }
+
+    /**
+     * Records an exchange which was cancelled midway
+     *
+     * @param contentLength length of the body announced by the server, or -1 if it was not
+     * @param bytesRead     number of body bytes read from the wire before the cancellation
+     */
+    synchronized void recordCancellation(long contentLength, long bytesRead) {
+        mCancelCount++;
+        if (contentLength < 0) {
+            mCancelledUnknownLengthCount++;
+        } else {
+            mCancelledAnnouncedBytesNotRead += Math.max(0, contentLength - bytesRead);
+        }
+    }
+
+    /**
+     * @return number of exchanges which were cancelled midway
+     */
+    public synchronized int getCancelCount() {
+        return mCancelCount;
+    }
+
+    /**
+     * @return number of bytes of the announced Content-Length which cancelled exchanges did
+     * not read
+     */
+    public synchronized long getCancelledAnnouncedBytesNotRead() {
+        return mCancelledAnnouncedBytesNotRead;
+    }
+
+    /**
+     * @return number of cancelled exchanges whose body length was not announced, e.g. because
+     * the body was gzipped
+     */
+    public synchronized int getCancelledUnknownLengthCount() {
+        return mCancelledUnknownLengthCount;
+    }
+
+    /**
+     * @return number of requests made through the client
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return number of connections which were closed instead of being returned to the pool
+     */
+    public synchronized int getDiscardCount() {
+        return mDiscardCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TmdbClient[requests=" + mRequestCount
+                + ", discarded=" + mDiscardCount
+                + ", cancelled=" + mCancelCount
+                + ", cancelledAnnouncedBytesNotRead=" + mCancelledAnnouncedBytesNotRead
+                + ", cancelledUnknownLength=" + mCancelledUnknownLengthCount
+                + ", connectTimeout=" + mConnectTimeoutMillis + "ms"
+                + ", readTimeout=" + mReadTimeoutMillis + "ms]";
+    }
+}
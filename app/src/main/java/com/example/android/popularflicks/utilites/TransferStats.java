@@ -0,0 +1,116 @@
+package com.example.android.popularflicks.utilites;
+
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Counts the bytes received on the wire and after decompression for each endpoint of the
+ * TMDB API, to measure the bandwidth saved by compressed responses
+ */
+
+public final class TransferStats {
+
+    // Numeric path segments after the API version, which are the ids of movies
+    private static final Pattern ID_SEGMENT = Pattern.compile("(?<!^)/\\d+(?=/|$)");
+
+    // Counters by endpoint, sorted by endpoint
+    private final TreeMap<String, Endpoint> mEndpoints = new TreeMap<>();
+
+    /**
+     * Returns the endpoint of a URL, which is its path with movie ids replaced by {id},
+     * e.g. /3/movie/{id}/reviews
+     *
+     * @param url the URL which was queried
+     * @return the endpoint of the URL
+     */
+    public static String endpointOf(URL url) {
+        return ID_SEGMENT.matcher(url.getPath()).replaceAll("/{id}");
+    }
+
+    /**
+     * Records a response which was downloaded in full
+     *
+     * @param endpoint          endpoint of the request
+     * @param compressed        whether the body was sent compressed
+     * @param wireBytes         number of body bytes received on the wire
+     * @param uncompressedBytes number of body bytes after decompression
+     */
+    public synchronized void record(String endpoint, boolean compressed, long wireBytes, long uncompressedBytes) {
+
+        Endpoint counters = mEndpoints.get(endpoint);
+        if (counters == null) {
+            counters = new Endpoint();
+            mEndpoints.put(endpoint, counters);
+        }
+        counters.mResponseCount++;
+        if (compressed) {
+            counters.mCompressedCount++;
+        }
+        counters.mWireBytes += wireBytes;
+        counters.mUncompressedBytes += uncompressedBytes;
+    }
+
+    /**
+     * @return number of body bytes received on the wire, over all endpoints
+     */
+    public synchronized long getWireBytes() {
+        long total = 0;
+        for (Endpoint counters : mEndpoints.values()) {
+            total += counters.mWireBytes;
+        }
+        return total;
+    }
+
+    /**
+     * @param endpoint the endpoint, as returned by endpointOf
+     * @return number of body bytes received on the wire for the endpoint
+     */
+    public synchronized long getWireBytes(String endpoint) {
+        Endpoint counters = mEndpoints.get(endpoint);
+        return counters == null ? 0 : counters.mWireBytes;
+    }
+
+    /**
+     * @return number of body bytes after decompression, over all endpoints
+     */
+    public synchronized long getUncompressedBytes() {
+        long total = 0;
+        for (Endpoint counters : mEndpoints.values()) {
+            total += counters.mUncompressedBytes;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("TransferStats[");
+        String separator = "";
+        for (Map.Entry<String, Endpoint> entry : mEndpoints.entrySet()) {
+            Endpoint counters = entry.getValue();
+            builder.append(separator).append(entry.getKey())
+                    .append(": responses=").append(counters.mResponseCount)
+                    .append(", compressed=").append(counters.mCompressedCount)
+                    .append(", wireBytes=").append(counters.mWireBytes)
+                    .append(", uncompressedBytes=").append(counters.mUncompressedBytes);
+            if (counters.mUncompressedBytes > 0) {
+                builder.append(String.format(Locale.US, ", ratio=%.2f",
+                        (double) counters.mWireBytes / counters.mUncompressedBytes));
+            }
+            separator = "; ";
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Counters of one endpoint
+     */
+    private static final class Endpoint {
+        private int mResponseCount;
+        private int mCompressedCount;
+        private long mWireBytes;
+        private long mUncompressedBytes;
+    }
+}
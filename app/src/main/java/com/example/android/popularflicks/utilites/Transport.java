@@ -0,0 +1,23 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens the connections used by {@link TmdbClient}, so that requests can be served by the
+ * network, recorded to fixture files or replayed from them
+ */
+
+public interface Transport {
+
+    /**
+     * Opens a connection to the URL; the connection is configured by the caller before it
+     * connects
+     *
+     * @param url the URL to be queried
+     * @return the unconnected connection
+     * @throws IOException if the connection cannot be opened
+     */
+    HttpURLConnection open(URL url) throws IOException;
+}
@@ -0,0 +1,423 @@
+package com.example.android.popularflicks;
+
+import com.example.android.popularflicks.utilites.Fixture;
+import com.example.android.popularflicks.utilites.HttpCache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in of the TMDB API which serves fixture files over HTTP/1.1 on the loopback
+ * interface, so that the fetch and parse path can be measured offline
+ * <p>
+ * Responses can be delayed, throttled to a bandwidth and replaced by injected errors. Paths
+ * registered through servePages answer every page of a list with generated movies, and
+ * bodies are gzipped for clients which accept it. Conditional requests matching the ETag, or
+ * without one the Last-Modified date, of a fixture are answered with a 304. Connections are kept
+ * alive.
+ */
+
+public class FixtureServer {
+
+    private final File mFixtureDirectory;
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    // Delay before each response is sent
+    private volatile long mLatencyMillis;
+
+    // Maximum rate at which bodies are sent, or 0 for no limit
+    private volatile long mBytesPerSecond;
+
+    // Whether bodies are gzipped for clients which accept it
+    private volatile boolean mGzipEnabled = true;
+
+    // Paginated lists by path; the values are the total number of pages and the page size
+    private final Map<String, int[]> mPagedPaths = new HashMap<>();
+
+    // Injected errors: the next requests which fail, and the rate at which later requests fail
+    private int mFailNextCount;
+    private int mFailStatusCode;
+    private long mRetryAfterSeconds = -1;
+    private double mErrorRate;
+    private Random mErrorRandom = new Random(0);
+
+    // Number of connections accepted, requests received and body bytes sent
+    private int mConnectionCount;
+    private int mRequestCount;
+    private long mBodyBytesSent;
+
+    /**
+     * @param fixtureDirectory the directory holding the fixture files to be served
+     */
+    public FixtureServer(File fixtureDirectory) throws IOException {
+        mFixtureDirectory = fixtureDirectory;
+        mServerSocket = new ServerSocket();
+        mServerSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+    }
+
+    /**
+     * Starts accepting connections
+     */
+    public void start() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones
+     */
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @return the base url of the stand-in, e.g. http://127.0.0.1:4242
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    /**
+     * @param pathAndQuery the path and query of the request, e.g. /3/movie/popular?page=1
+     * @return the URL of the request on the stand-in
+     */
+    public URL url(String pathAndQuery) throws IOException {
+        return new URL(getBaseUrl() + pathAndQuery);
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    public void setGzipEnabled(boolean gzipEnabled) {
+        mGzipEnabled = gzipEnabled;
+    }
+
+    /**
+     * Answers every page of a list with generated movies instead of fixtures
+     *
+     * @param path       path of the list, e.g. /3/movie/popular
+     * @param totalPages total number of pages of the list
+     * @param pageSize   number of movies per page
+     */
+    public synchronized void servePages(String path, int totalPages, int pageSize) {
+        mPagedPaths.put(path, new int[]{totalPages, pageSize});
+    }
+
+    /**
+     * Fails the next requests with the status code
+     *
+     * @param count             number of requests to be failed
+     * @param statusCode        status code of the failures, e.g. 503
+     * @param retryAfterSeconds value of the Retry-After header, or -1 for none
+     */
+    public synchronized void failNextRequests(int count, int statusCode, long retryAfterSeconds) {
+        mFailNextCount = count;
+        mFailStatusCode = statusCode;
+        mRetryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Fails a random fraction of the requests with the status code
+     *
+     * @param rate       fraction of the requests to be failed, between 0 and 1
+     * @param statusCode status code of the failures, e.g. 500
+     * @param seed       seed of the random failures, so that runs are repeatable
+     */
+    public synchronized void setErrorRate(double rate, int statusCode, long seed) {
+        mErrorRate = rate;
+        mFailStatusCode = statusCode;
+        mErrorRandom = new Random(seed);
+    }
+
+    /**
+     * @return number of connections accepted; fewer than the requests when clients reuse them
+     */
+    public synchronized int getConnectionCount() {
+        return mConnectionCount;
+    }
+
+    /**
+     * @return number of requests received
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return number of body bytes sent, after compression
+     */
+    public synchronized long getBodyBytesSent() {
+        return mBodyBytesSent;
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                synchronized (this) {
+                    mConnectionCount++;
+                }
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serveConnection(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // The server socket was closed
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of a connection until the client closes it
+     */
+    private void serveConnection(Socket socket) {
+        try {
+            // Head and body are written separately and must not wait for each other
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String head = readHead(in);
+                if (head == null) {
+                    break;
+                }
+                String[] lines = head.split("\r\n");
+                String[] requestLine = lines[0].split(" ");
+                Map<String, String> headers = new HashMap<>();
+                for (int index = 1; index < lines.length; index++) {
+                    int colon = lines[index].indexOf(':');
+                    if (colon > 0) {
+                        headers.put(lines[index].substring(0, colon).trim().toLowerCase(Locale.US),
+                                lines[index].substring(colon + 1).trim());
+                    }
+                }
+                respond(requestLine.length > 1 ? requestLine[1] : "/", headers, out);
+                if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                    break;
+                }
+            }
+        } catch (SocketException | InterruptedException e) {
+            // The client closed the connection or the server was shut down
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing left to do
+            }
+        }
+    }
+
+    private void respond(String target, Map<String, String> headers, OutputStream out)
+            throws IOException, InterruptedException {
+
+        int failStatusCode = 0;
+        long retryAfterSeconds;
+        synchronized (this) {
+            mRequestCount++;
+            if (mFailNextCount > 0) {
+                mFailNextCount--;
+                failStatusCode = mFailStatusCode;
+            } else if (mErrorRate > 0 && mErrorRandom.nextDouble() < mErrorRate) {
+                failStatusCode = mFailStatusCode;
+            }
+            retryAfterSeconds = mRetryAfterSeconds;
+        }
+
+        if (mLatencyMillis > 0) {
+            Thread.sleep(mLatencyMillis);
+        }
+
+        Fixture fixture;
+        if (failStatusCode != 0) {
+            LinkedHashMap<String, String> errorHeaders = new LinkedHashMap<>();
+            if (retryAfterSeconds >= 0) {
+                errorHeaders.put("Retry-After", String.valueOf(retryAfterSeconds));
+            }
+            fixture = new Fixture(failStatusCode, errorHeaders,
+                    "{\"status_message\":\"Injected error\"}".getBytes("UTF-8"));
+        } else {
+            fixture = findFixture(new URL("http://127.0.0.1" + target));
+        }
+
+        String etag = fixture.getHeader("ETag");
+        String lastModified = fixture.getHeader("Last-Modified");
+        boolean notModified = etag != null
+                ? etag.equals(headers.get("if-none-match"))
+                : lastModified != null && lastModified.equals(headers.get("if-modified-since"));
+        byte[] body = notModified ? new byte[0] : fixture.getBody();
+
+        String acceptEncoding = headers.get("accept-encoding");
+        boolean gzip = mGzipEnabled && body.length > 0
+                && acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+            gzipOut.write(body);
+            gzipOut.close();
+            body = compressed.toByteArray();
+        }
+
+        StringBuilder head = new StringBuilder("HTTP/1.1 ")
+                .append(notModified ? 304 : fixture.getStatusCode()).append(" ")
+                .append(notModified ? "Not Modified" : "Fixture").append("\r\n");
+        for (Map.Entry<String, String> header : fixture.getHeaders().entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (gzip) {
+            head.append("Content-Encoding: gzip\r\n");
+        }
+        head.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+
+        // Counted before sending, so that the count is complete once the client has the body
+        synchronized (this) {
+            mBodyBytesSent += body.length;
+        }
+        out.write(head.toString().getBytes("UTF-8"));
+        writeThrottled(body, out);
+        out.flush();
+    }
+
+    /**
+     * Finds the fixture of a request, falling back to generated pages and then to a 404
+     */
+    private Fixture findFixture(URL url) throws IOException {
+
+        String cacheKey = HttpCache.keyFor(url);
+        File file = new File(mFixtureDirectory, Fixture.fileNameFor(cacheKey));
+        if (file.isFile()) {
+            return Fixture.read(file);
+        }
+
+        int[] paging;
+        synchronized (this) {
+            paging = mPagedPaths.get(url.getPath());
+        }
+        if (paging != null) {
+            return generatePage(url, paging[0], paging[1]);
+        }
+
+        return new Fixture(404, new LinkedHashMap<String, String>(),
+                "{\"status_code\":34,\"status_message\":\"The resource could not be found.\"}"
+                        .getBytes("UTF-8"));
+    }
+
+    /**
+     * Generates a page of a list, with movie ids unique across the pages
+     */
+    private static Fixture generatePage(URL url, int totalPages, int pageSize) throws IOException {
+
+        int page = 1;
+        String query = url.getQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("page=")) {
+                    page = Integer.parseInt(parameter.substring(5));
+                }
+            }
+        }
+        if (page < 1 || page > totalPages) {
+            return new Fixture(422, new LinkedHashMap<String, String>(),
+                    "{\"errors\":[\"page must be less than or equal to the total pages\"]}"
+                            .getBytes("UTF-8"));
+        }
+
+        StringBuilder json = new StringBuilder("{\"page\":").append(page).append(",\"results\":[");
+        for (int index = 0; index < pageSize; index++) {
+            int id = page * 1000 + index;
+            if (index > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(id)
+                    .append(",\"title\":\"Movie ").append(id).append('"')
+                    .append(",\"overview\":\"Overview of movie ").append(id).append('"')
+                    .append(",\"poster_path\":\"/poster").append(id).append(".jpg\"")
+                    .append(",\"release_date\":\"2017-06-01\"")
+                    .append(",\"vote_average\":").append(5 + index % 5).append(".5}");
+        }
+        json.append("],\"total_pages\":").append(totalPages)
+                .append(",\"total_results\":").append(totalPages * pageSize).append('}');
+
+        LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json;charset=utf-8");
+        headers.put("Cache-Control", "public, max-age=60");
+        headers.put("ETag", "\"page-" + page + "\"");
+        return new Fixture(200, headers, json.toString().getBytes("UTF-8"));
+    }
+
+    private void writeThrottled(byte[] body, OutputStream out)
+            throws IOException, InterruptedException {
+
+        long bytesPerSecond = mBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            out.write(body);
+            return;
+        }
+        int chunkSize = (int) Math.max(1, Math.min(4096, bytesPerSecond / 20));
+        long start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += chunkSize) {
+            int count = Math.min(chunkSize, body.length - offset);
+            out.write(body, offset, count);
+            out.flush();
+            long dueNanos = (offset + count) * 1000000000L / bytesPerSecond;
+            long aheadMillis = (dueNanos - (System.nanoTime() - start)) / 1000000;
+            if (aheadMillis > 0) {
+                Thread.sleep(aheadMillis);
+            }
+        }
+    }
+
+    /**
+     * Reads the request line and headers of the next request
+     *
+     * @return the head without its final blank line, or null if the connection was closed
+     */
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        int value;
+        while ((value = in.read()) != -1) {
+            head.write(value);
+            matched = (value == '\r' && matched % 2 == 0) || (value == '\n' && matched % 2 == 1)
+                    ? matched + 1 : (value == '\r' ? 1 : 0);
+            if (matched == 4) {
+                byte[] bytes = head.toByteArray();
+                return new String(bytes, 0, bytes.length - 4, "UTF-8");
+            }
+        }
+        return null;
+    }
+}
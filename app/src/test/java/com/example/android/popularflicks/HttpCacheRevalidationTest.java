@@ -0,0 +1,125 @@
+package com.example.android.popularflicks;
+
+import com.example.android.popularflicks.utilites.CircuitBreaker;
+import com.example.android.popularflicks.utilites.Fixture;
+import com.example.android.popularflicks.utilites.HttpCache;
+import com.example.android.popularflicks.utilites.QueryUtils;
+import com.example.android.popularflicks.utilites.RateLimiter;
+import com.example.android.popularflicks.utilites.ResponseParser;
+import com.example.android.popularflicks.utilites.RetryPolicy;
+import com.example.android.popularflicks.utilites.TmdbClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Revalidates stale entries of the {@link HttpCache} against the local {@link FixtureServer},
+ * checking that a 304 serves the stored body and extends the freshness of the entry
+ */
+public class HttpCacheRevalidationTest {
+
+    private static final String PATH = "/3/movie/550/reviews";
+
+    // Reads a whole body into a String
+    private static final ResponseParser<String> BODY_PARSER = new ResponseParser<String>() {
+        @Override
+        public String parse(InputStream in) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toString("UTF-8");
+        }
+    };
+
+    private File mFixtureDirectory;
+    private FixtureServer mServer;
+    private HttpCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mFixtureDirectory = createTempDirectory("fixtures");
+        mServer = new FixtureServer(mFixtureDirectory);
+        mServer.start();
+
+        mCache = new HttpCache(createTempDirectory("cache"), 1024 * 1024);
+        QueryUtils.setResponseCache(mCache);
+        QueryUtils.setClient(new TmdbClient());
+        QueryUtils.setRetryPolicy(new RetryPolicy(0, 10, 50));
+        QueryUtils.setRateLimiter(new RateLimiter(1000, 1000));
+        QueryUtils.setCircuitBreaker(new CircuitBreaker());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        QueryUtils.setResponseCache(null);
+        QueryUtils.setClient(null);
+        QueryUtils.setRetryPolicy(null);
+        QueryUtils.setRateLimiter(null);
+        QueryUtils.setCircuitBreaker(null);
+    }
+
+    @Test
+    public void revalidatesWithEtag() throws Exception {
+        assertRevalidated("ETag", "\"reviews-1\"");
+    }
+
+    @Test
+    public void revalidatesWithLastModified() throws Exception {
+        assertRevalidated("Last-Modified", "Wed, 21 Jun 2017 07:28:00 GMT");
+    }
+
+    /**
+     * Stores a response which is stale at once, then has the stand-in confirm it with a 304
+     * which makes it fresh for a minute
+     */
+    private void assertRevalidated(String validator, String value) throws Exception {
+        writeFixture("{\"page\":1}", validator, value, "max-age=0");
+        assertEquals("{\"page\":1}", QueryUtils.fetch(mServer.url(PATH), BODY_PARSER));
+        assertEquals(1, mCache.getMissCount());
+
+        // The body of the fixture changes but its validator does not, so the stored body is
+        // still valid and the stand-in answers the conditional request with a 304
+        writeFixture("{\"page\":2}", validator, value, "max-age=60");
+        assertEquals("{\"page\":1}", QueryUtils.fetch(mServer.url(PATH), BODY_PARSER));
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(1, mCache.getRevalidateCount());
+
+        // The 304 extended the expiry of the entry, which is now served without a request
+        assertEquals("{\"page\":1}", QueryUtils.fetch(mServer.url(PATH), BODY_PARSER));
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    private void writeFixture(String body, String validator, String value, String cacheControl)
+            throws IOException {
+        LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json;charset=utf-8");
+        headers.put("Cache-Control", cacheControl);
+        headers.put(validator, value);
+        String cacheKey = HttpCache.keyFor(mServer.url(PATH));
+        new Fixture(200, headers, body.getBytes("UTF-8"))
+                .write(new File(mFixtureDirectory, Fixture.fileNameFor(cacheKey)));
+    }
+
+    private static File createTempDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        directory.deleteOnExit();
+        return directory;
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.android.popularflicks;
+
+import com.example.android.popularflicks.utilites.CircuitBreaker;
+import com.example.android.popularflicks.utilites.Fixture;
+import com.example.android.popularflicks.utilites.HttpCache;
+import com.example.android.popularflicks.utilites.HttpStatusException;
+import com.example.android.popularflicks.utilites.QueryUtils;
+import com.example.android.popularflicks.utilites.RateLimiter;
+import com.example.android.popularflicks.utilites.RecordingTransport;
+import com.example.android.popularflicks.utilites.RequestMetrics;
+import com.example.android.popularflicks.utilites.ReplayTransport;
+import com.example.android.popularflicks.utilites.ResponseParser;
+import com.example.android.popularflicks.utilites.RetryPolicy;
+import com.example.android.popularflicks.utilites.TmdbClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the fetch path of {@link QueryUtils} against the local {@link FixtureServer} stand-in
+ * and the record and replay transports, reporting latency and throughput without the live API
+ */
+public class TmdbStandInTest {
+
+    // Reads a whole body into a String
+    private static final ResponseParser<String> BODY_PARSER = new ResponseParser<String>() {
+        @Override
+        public String parse(InputStream in) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toString("UTF-8");
+        }
+    };
+
+    private File mFixtureDirectory;
+    private FixtureServer mServer;
+    private TmdbClient mClient;
+    private RetryPolicy mRetryPolicy;
+
+    @Before
+    public void setUp() throws Exception {
+        mFixtureDirectory = createTempDirectory("fixtures");
+        mServer = new FixtureServer(mFixtureDirectory);
+        mServer.start();
+
+        mClient = new TmdbClient();
+        mRetryPolicy = new RetryPolicy(3, 10, 50);
+        QueryUtils.setClient(mClient);
+        QueryUtils.setRetryPolicy(mRetryPolicy);
+        QueryUtils.setRateLimiter(new RateLimiter(1000, 1000));
+        QueryUtils.setCircuitBreaker(new CircuitBreaker());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        QueryUtils.setClient(null);
+        QueryUtils.setRetryPolicy(null);
+        QueryUtils.setRateLimiter(null);
+        QueryUtils.setCircuitBreaker(null);
+    }
+
+    @Test
+    public void servesFixtureFiles() throws Exception {
+        writeFixture("/3/movie/550?append_to_response=videos,reviews", "{\"id\":550}");
+
+        String body = QueryUtils.fetch(
+                mServer.url("/3/movie/550?append_to_response=videos,reviews&api_key=key"),
+                BODY_PARSER);
+
+        assertEquals("{\"id\":550}", body);
+    }
+
+    @Test
+    public void replaysRecordedResponsesOffline() throws Exception {
+        mServer.servePages("/3/movie/popular", 3, 20);
+        File recordings = createTempDirectory("recordings");
+
+        RecordingTransport recorder = new RecordingTransport(recordings);
+        mClient.setTransport(recorder);
+        String recorded = QueryUtils.fetch(mServer.url("/3/movie/popular?page=2&api_key=key"),
+                BODY_PARSER);
+        assertEquals(1, recorder.getRecordCount());
+
+        // The stand-in is gone; the response comes from the recorded fixture alone
+        mServer.shutdown();
+        ReplayTransport replayer = new ReplayTransport(recordings);
+        mClient.setTransport(replayer);
+        String replayed = QueryUtils.fetch(mServer.url("/3/movie/popular?page=2&api_key=other"),
+                BODY_PARSER);
+
+        assertEquals(recorded, replayed);
+        assertEquals(1, replayer.getReplayCount());
+    }
+
+    @Test
+    public void paginatesAndReportsLatency() throws Exception {
+        int totalPages = 10;
+        long latencyMillis = 20;
+        mServer.servePages("/3/movie/top_rated", totalPages, 20);
+        mServer.setLatencyMillis(latencyMillis);
+
+        RequestMetrics metrics = QueryUtils.getRequestMetrics();
+        int recordedBefore = metrics.getCount("/3/movie/top_rated");
+        int connectionsBefore = mServer.getConnectionCount();
+        long start = System.nanoTime();
+        for (int page = 1; page <= totalPages; page++) {
+            String body = QueryUtils.fetch(
+                    mServer.url("/3/movie/top_rated?page=" + page), BODY_PARSER);
+            assertTrue(body.startsWith("{\"page\":" + page + ","));
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(elapsedMillis >= totalPages * latencyMillis);
+        // The pages were fetched one after another, so every page after the first one could
+        // reuse the connection of the previous page
+        assertTrue(mServer.getConnectionCount() - connectionsBefore < totalPages);
+        assertEquals(totalPages, metrics.getCount("/3/movie/top_rated") - recordedBefore);
+
+        // The latency histograms are reported for the endpoint
+        StringWriter dump = new StringWriter();
+        metrics.dump("", new PrintWriter(dump));
+        assertTrue(dump.toString().contains("/3/movie/top_rated: "));
+
+        try {
+            QueryUtils.fetch(mServer.url("/3/movie/top_rated?page=" + (totalPages + 1)),
+                    BODY_PARSER);
+            fail("A page after the last one must fail");
+        } catch (HttpStatusException e) {
+            assertEquals(422, e.getResponseCode());
+        }
+    }
+
+    @Test
+    public void retriesInjectedErrors() throws Exception {
+        mServer.servePages("/3/movie/popular", 1, 20);
+        mServer.failNextRequests(2, 503, 0);
+
+        String body = QueryUtils.fetch(mServer.url("/3/movie/popular?page=1"), BODY_PARSER);
+
+        assertTrue(body.startsWith("{\"page\":1,"));
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(2, mRetryPolicy.getRetryCount());
+        assertEquals(2, mRetryPolicy.getRetryAfterCount());
+    }
+
+    @Test
+    public void givesUpWhenRetryAfterExceedsMaximumDelay() throws Exception {
+        mServer.servePages("/3/movie/popular", 1, 20);
+
+        // Asks for one second, longer than the 50ms maximum delay of the policy
+        mServer.failNextRequests(1, 503, 1);
+
+        try {
+            QueryUtils.fetch(mServer.url("/3/movie/popular?page=1"), BODY_PARSER);
+            fail("A request asked to wait longer than the maximum delay must not be retried");
+        } catch (HttpStatusException e) {
+            assertEquals(503, e.getResponseCode());
+        }
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(0, mRetryPolicy.getRetryCount());
+        assertEquals(1, mRetryPolicy.getRetryAfterExceededCount());
+    }
+
+    @Test
+    public void throttlesBandwidthAndCompresses() throws Exception {
+        mServer.servePages("/3/movie/popular", 1, 200);
+        long bytesPerSecond = 20 * 1024;
+        mServer.setBytesPerSecond(bytesPerSecond);
+
+        long start = System.nanoTime();
+        String body = QueryUtils.fetch(mServer.url("/3/movie/popular?page=1"), BODY_PARSER);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        long wireBytes = mServer.getBodyBytesSent();
+        assertTrue(wireBytes < body.length());
+        assertTrue(elapsedMillis >= wireBytes * 1000 / bytesPerSecond / 2);
+
+        // The compressed bytes are accounted to the endpoint
+        assertTrue(QueryUtils.getTransferStats().getWireBytes("/3/movie/popular") >= wireBytes);
+    }
+
+    private void writeFixture(String pathAndQuery, String body) throws IOException {
+        LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json;charset=utf-8");
+        String cacheKey = HttpCache.keyFor(mServer.url(pathAndQuery));
+        new Fixture(200, headers, body.getBytes("UTF-8"))
+                .write(new File(mFixtureDirectory, Fixture.fileNameFor(cacheKey)));
+    }
+
+    private static File createTempDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        directory.deleteOnExit();
+        return directory;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.popularflicks.data;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Coalesces the changes of the favourites queued by the {@link FavouritesWriter} into batches,
+ * with the values of a movie to be inserted as a String
+ */
+public class FavouriteWritesTest {
+
+    @Test
+    public void addingAndRemovingWithinTheWindowWritesNothing() {
+        FavouriteWrites<String> writes = new FavouriteWrites<>();
+
+        assertTrue(writes.enqueue("550", "Fight Club"));
+        assertFalse(writes.enqueue("550", null));
+
+        assertNull(writes.startBatch());
+        assertNull(writes.getUnwrittenInsert("550"));
+    }
+
+    @Test
+    public void coalescesTheChangesOfTheWindowIntoOneBatch() {
+        FavouriteWrites<String> writes = new FavouriteWrites<>();
+
+        // Only the first change starts the window
+        assertTrue(writes.enqueue("550", "Fight Club"));
+        assertFalse(writes.enqueue("13", null));
+        assertFalse(writes.enqueue("680", "Pulp Fiction"));
+        assertFalse(writes.enqueue("550", "Fight Club, updated"));
+
+        Map<String, String> batch = writes.startBatch();
+        assertEquals(3, batch.size());
+        assertEquals("Fight Club, updated", batch.get("550"));
+        assertTrue(batch.containsKey("13"));
+        assertNull(batch.get("13"));
+        assertEquals("Pulp Fiction", batch.get("680"));
+    }
+
+    @Test
+    public void queuesChangesMadeWhileABatchIsWritten() {
+        FavouriteWrites<String> writes = new FavouriteWrites<>();
+        writes.enqueue("550", "Fight Club");
+        writes.startBatch();
+
+        // The insert being written is still unwritten, and the change of the movie queued
+        // meanwhile is not cancelled against it but starts a new window
+        assertEquals("Fight Club", writes.getUnwrittenInsert("550"));
+        assertTrue(writes.enqueue("550", null));
+        assertNull(writes.getUnwrittenInsert("550"));
+
+        // Only one batch is written at a time
+        assertNull(writes.startBatch());
+        assertTrue(writes.finishBatch());
+
+        Map<String, String> batch = writes.startBatch();
+        assertEquals(1, batch.size());
+        assertNull(batch.get("550"));
+        assertFalse(writes.finishBatch());
+    }
+}
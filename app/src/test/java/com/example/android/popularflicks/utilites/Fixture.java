@@ -0,0 +1,197 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A response of the TMDB API stored in a fixture file, to be replayed without the live service
+ * <p>
+ * A fixture file holds a status line, the headers of the response, a blank line and the
+ * decompressed body, so that fixtures can be read and written by hand:
+ * <pre>
+ * HTTP/1.1 200
+ * ETag: "abc"
+ *
+ * {"page":1,"results":[]}
+ * </pre>
+ * Fixtures are named after the cache key of their request, which leaves out the api_key.
+ */
+
+public final class Fixture {
+
+    // Extension of fixture files
+    private static final String FILE_SUFFIX = ".http";
+
+    private final int mStatusCode;
+
+    // Headers of the response in their original case, in their original order
+    private final Map<String, String> mHeaders;
+
+    private final byte[] mBody;
+
+    /**
+     * @param statusCode status code of the response
+     * @param headers    headers of the response; Content-Length and encodings are left out
+     * @param body       decompressed body of the response
+     */
+    public Fixture(int statusCode, Map<String, String> headers, byte[] body) {
+        mStatusCode = statusCode;
+        mHeaders = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        mBody = body;
+    }
+
+    /**
+     * @return status code of the response
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * @return headers of the response
+     */
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * @param name name of the header, in any case
+     * @return value of the header, or null if the response has no such header
+     */
+    public String getHeader(String name) {
+        for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return decompressed body of the response
+     */
+    public byte[] getBody() {
+        return mBody;
+    }
+
+    /**
+     * Creates the name of the fixture file of a request from its cache key,
+     * e.g. 3_movie_popular_page_1.http
+     *
+     * @param cacheKey the cache key of the request, as returned by {@link HttpCache#keyFor}
+     * @return the file name
+     */
+    public static String fileNameFor(String cacheKey) {
+
+        // Leaves out the scheme and the host, which differ between the live service and stand-ins
+        String request = cacheKey.replaceFirst("^[a-z]+://[^/]*", "");
+        String name = request.replaceAll("[^A-Za-z0-9]+", "_").replaceAll("^_+|_+$", "");
+        return name.toLowerCase(Locale.US) + FILE_SUFFIX;
+    }
+
+    /**
+     * Reads a fixture file
+     *
+     * @param file the fixture file
+     * @return the fixture
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static Fixture read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a fixture from a stream holding the contents of a fixture file
+     */
+    public static Fixture read(InputStream in) throws IOException {
+
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            contents.write(buffer, 0, read);
+        }
+        byte[] bytes = contents.toByteArray();
+
+        // The head ends at the first blank line
+        int headEnd = -1;
+        int bodyStart = bytes.length;
+        for (int index = 0; index < bytes.length - 1; index++) {
+            if (bytes[index] == '\n' && bytes[index + 1] == '\n') {
+                headEnd = index;
+                bodyStart = index + 2;
+                break;
+            }
+            if (bytes[index] == '\n' && bytes[index + 1] == '\r'
+                    && index + 2 < bytes.length && bytes[index + 2] == '\n') {
+                headEnd = index;
+                bodyStart = index + 3;
+                break;
+            }
+        }
+        if (headEnd == -1) {
+            headEnd = bytes.length;
+        }
+
+        String[] lines = new String(bytes, 0, headEnd, "UTF-8").split("\r?\n");
+        String[] statusLine = lines[0].trim().split(" ");
+        if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed status line in fixture: " + lines[0]);
+        }
+        int statusCode;
+        try {
+            statusCode = Integer.parseInt(statusLine[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line in fixture: " + lines[0]);
+        }
+
+        LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        for (int index = 1; index < lines.length; index++) {
+            int colon = lines[index].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[index].substring(0, colon).trim(),
+                        lines[index].substring(colon + 1).trim());
+            }
+        }
+
+        byte[] body = new byte[bytes.length - bodyStart];
+        System.arraycopy(bytes, bodyStart, body, 0, body.length);
+        return new Fixture(statusCode, headers, body);
+    }
+
+    /**
+     * Writes the fixture to a file, replacing any previous contents
+     *
+     * @param file the fixture file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            StringBuilder head = new StringBuilder("HTTP/1.1 ").append(mStatusCode).append('\n');
+            for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append('\n');
+            }
+            head.append('\n');
+            out.write(head.toString().getBytes("UTF-8"));
+            out.write(mBody);
+        } finally {
+            out.close();
+        }
+    }
+}
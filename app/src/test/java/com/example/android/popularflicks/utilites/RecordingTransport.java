@@ -0,0 +1,263 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Transport which makes real requests and records their successful responses to fixture files,
+ * to be replayed later by {@link ReplayTransport} or served by a local stand-in of the API
+ * <p>
+ * Requests are made without Accept-Encoding, so that the recorded bodies are plain JSON.
+ * A response is recorded once its body has been read to the end.
+ */
+
+public final class RecordingTransport implements Transport {
+
+    // Headers which describe the transfer rather than the response, and are not recorded
+    private static final String[] TRANSFER_HEADERS =
+            {"Content-Length", "Content-Encoding", "Transfer-Encoding", "Connection", "Keep-Alive"};
+
+    private final File mDirectory;
+
+    // Number of responses recorded
+    private int mRecordCount;
+
+    /**
+     * @param directory the directory in which the fixture files are written
+     */
+    public RecordingTransport(File directory) {
+        mDirectory = directory;
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        return new RecordingConnection(url, (HttpURLConnection) url.openConnection());
+    }
+
+    /**
+     * @return number of responses recorded
+     */
+    public synchronized int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Writes the fixture of a response whose body was read to the end
+     */
+    private void record(URL url, HttpURLConnection connection, byte[] body) {
+
+        LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> field : connection.getHeaderFields().entrySet()) {
+            if (field.getKey() == null || isTransferHeader(field.getKey())
+                    || field.getValue().isEmpty()) {
+                continue;
+            }
+            headers.put(field.getKey(), field.getValue().get(0));
+        }
+
+        File file = new File(mDirectory, Fixture.fileNameFor(HttpCache.keyFor(url)));
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Unable to create fixture directory " + mDirectory);
+            }
+            new Fixture(HttpURLConnection.HTTP_OK, headers, body).write(file);
+            synchronized (this) {
+                mRecordCount++;
+            }
+        } catch (IOException e) {
+            // A failed recording must not fail the request
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean isTransferHeader(String name) {
+        for (String transferHeader : TRANSFER_HEADERS) {
+            if (transferHeader.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Connection which hands its configuration to a real connection when connecting and copies
+     * the body of a successful response as it is read
+     */
+    private final class RecordingConnection extends HttpURLConnection {
+
+        private final HttpURLConnection mDelegate;
+
+        // Body of the response, created once
+        private InputStream mBody;
+
+        private RecordingConnection(URL url, HttpURLConnection delegate) {
+            super(url);
+            mDelegate = delegate;
+        }
+
+        @Override
+        public void connect() throws IOException {
+
+            if (connected) {
+                return;
+            }
+            mDelegate.setConnectTimeout(getConnectTimeout());
+            mDelegate.setReadTimeout(getReadTimeout());
+            mDelegate.setUseCaches(getUseCaches());
+            for (Map.Entry<String, List<String>> property : getRequestProperties().entrySet()) {
+                if (property.getKey() == null
+                        || property.getKey().toLowerCase(Locale.US).equals("accept-encoding")) {
+                    continue;
+                }
+                for (String value : property.getValue()) {
+                    mDelegate.addRequestProperty(property.getKey(), value);
+                }
+            }
+            mDelegate.connect();
+            connected = true;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            connect();
+            return mDelegate.getResponseCode();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+
+            connect();
+            if (mBody == null) {
+                InputStream body = mDelegate.getInputStream();
+                mBody = mDelegate.getResponseCode() == HTTP_OK ? new RecordingStream(body) : body;
+            }
+            return mBody;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return mDelegate.getErrorStream();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            try {
+                connect();
+            } catch (IOException e) {
+                return null;
+            }
+            return mDelegate.getHeaderField(name);
+        }
+
+        @Override
+        public String getHeaderFieldKey(int position) {
+            try {
+                connect();
+            } catch (IOException e) {
+                return null;
+            }
+            return mDelegate.getHeaderFieldKey(position);
+        }
+
+        @Override
+        public String getHeaderField(int position) {
+            try {
+                connect();
+            } catch (IOException e) {
+                return null;
+            }
+            return mDelegate.getHeaderField(position);
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            try {
+                connect();
+            } catch (IOException e) {
+                return new LinkedHashMap<>();
+            }
+            return mDelegate.getHeaderFields();
+        }
+
+        @Override
+        public void disconnect() {
+            mDelegate.disconnect();
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return mDelegate.usingProxy();
+        }
+
+        /**
+         * Copies the body as it is read and records it once the end is reached
+         */
+        private final class RecordingStream extends FilterInputStream {
+
+            private final ByteArrayOutputStream mCopy = new ByteArrayOutputStream();
+            private boolean mRecorded;
+
+            private RecordingStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                int value = super.read();
+                if (value == -1) {
+                    onEnd();
+                } else {
+                    mCopy.write(value);
+                }
+                return value;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                int read = super.read(buffer, offset, count);
+                if (read == -1) {
+                    onEnd();
+                } else {
+                    mCopy.write(buffer, offset, read);
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long count) throws IOException {
+                // Skipped bytes still have to be recorded
+                byte[] buffer = new byte[(int) Math.min(count, 4096)];
+                long skipped = 0;
+                while (skipped < count) {
+                    int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+                    if (read == -1) {
+                        break;
+                    }
+                    skipped += read;
+                }
+                return skipped;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            private void onEnd() {
+                if (!mRecorded) {
+                    mRecorded = true;
+                    record(url, mDelegate, mCopy.toByteArray());
+                }
+            }
+        }
+    }
+}
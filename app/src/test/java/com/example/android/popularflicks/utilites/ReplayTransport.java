@@ -0,0 +1,169 @@
+package com.example.android.popularflicks.utilites;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transport which serves every request from the fixture files in a directory, without any
+ * network access, so that the fetch and parse path behaves the same on every run
+ * <p>
+ * A conditional request whose If-None-Match matches the ETag of its fixture is answered with
+ * a 304, like the live service would. A request without a fixture fails with an IOException.
+ */
+
+public final class ReplayTransport implements Transport {
+
+    private final File mDirectory;
+
+    // Number of requests served from fixtures
+    private int mReplayCount;
+
+    /**
+     * @param directory the directory holding the fixture files
+     */
+    public ReplayTransport(File directory) {
+        mDirectory = directory;
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+
+        String cacheKey = HttpCache.keyFor(url);
+        File file = new File(mDirectory, Fixture.fileNameFor(cacheKey));
+        if (!file.isFile()) {
+            throw new FileNotFoundException("No fixture " + file + " for " + cacheKey);
+        }
+        Fixture fixture = Fixture.read(file);
+        synchronized (this) {
+            mReplayCount++;
+        }
+        return new FixtureConnection(url, fixture);
+    }
+
+    /**
+     * @return number of requests served from fixtures
+     */
+    public synchronized int getReplayCount() {
+        return mReplayCount;
+    }
+
+    /**
+     * Connection answering a request with a fixture
+     */
+    private static final class FixtureConnection extends HttpURLConnection {
+
+        private final Fixture mFixture;
+
+        // Status code and headers of the answer, known once connected
+        private int mStatusCode;
+        private final ArrayList<String> mHeaderNames = new ArrayList<>();
+        private final ArrayList<String> mHeaderValues = new ArrayList<>();
+
+        // Body of the answer, created once
+        private InputStream mBody;
+
+        private FixtureConnection(URL url, Fixture fixture) {
+            super(url);
+            mFixture = fixture;
+        }
+
+        @Override
+        public void connect() {
+
+            if (connected) {
+                return;
+            }
+            String etag = mFixture.getHeader("ETag");
+            boolean notModified = etag != null && etag.equals(getRequestProperty("If-None-Match"));
+            connected = true;
+
+            mStatusCode = notModified ? HTTP_NOT_MODIFIED : mFixture.getStatusCode();
+            for (Map.Entry<String, String> header : mFixture.getHeaders().entrySet()) {
+                mHeaderNames.add(header.getKey());
+                mHeaderValues.add(header.getValue());
+            }
+            byte[] body = notModified ? new byte[0] : mFixture.getBody();
+            mHeaderNames.add("Content-Length");
+            mHeaderValues.add(String.valueOf(body.length));
+            mBody = new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public int getResponseCode() {
+            connect();
+            return mStatusCode;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            if (mStatusCode >= HTTP_BAD_REQUEST) {
+                throw new FileNotFoundException(url.toString());
+            }
+            return mBody;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return connected && mStatusCode >= HTTP_BAD_REQUEST ? mBody : null;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            connect();
+            for (int index = mHeaderNames.size() - 1; index >= 0; index--) {
+                if (mHeaderNames.get(index).equalsIgnoreCase(name)) {
+                    return mHeaderValues.get(index);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String getHeaderFieldKey(int position) {
+            connect();
+            return position > 0 && position <= mHeaderNames.size()
+                    ? mHeaderNames.get(position - 1) : null;
+        }
+
+        @Override
+        public String getHeaderField(int position) {
+            connect();
+            if (position == 0) {
+                return "HTTP/1.1 " + mStatusCode;
+            }
+            return position <= mHeaderValues.size() ? mHeaderValues.get(position - 1) : null;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            connect();
+            LinkedHashMap<String, List<String>> fields = new LinkedHashMap<>();
+            for (int index = 0; index < mHeaderNames.size(); index++) {
+                fields.put(mHeaderNames.get(index),
+                        Collections.singletonList(mHeaderValues.get(index)));
+            }
+            return Collections.unmodifiableMap(fields);
+        }
+
+        @Override
+        public void disconnect() {
+            // Nothing to release
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}